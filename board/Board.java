@@ -12,8 +12,8 @@ import java.util.*;
  */
 public class Board {
 
-    public static LinkedList<Integer> stateSeq = new LinkedList<>();
-    public static HashMap<Integer, Double> stateWeights;
+    public static LinkedList<Long> stateSeq = new LinkedList<>();
+    public static HashMap<Long, Double> stateWeights;
 
 
     public static final int SIZE = 8;
@@ -21,40 +21,114 @@ public class Board {
     public static final int GOAL2 = 2; // Right (WHITE) or Bottom (BLACK) goal
     public static final int MAX = 10000; // Score received for winning
     public static final int MIN = -10000; // Score received for losing
+    public static final int MAX_TILES = 10; // Tiles each player may place
+    private static final int INITIAL_PLIES = 32; // Initial chainHistory plies
+    private static final long NO_CHAIN = -1; // Packed chains are not negative
+    private static boolean verbose = true; // Report on stateWeights
+    public static final int DEFAULT_EVAL_CACHE_ENTRIES = 1 << 16;
+    // Results of evaluateWithWeight, keyed by the position and the color
+    private static LongCache evalCache = new LongCache(DEFAULT_EVAL_CACHE_ENTRIES);
+    // Upper bound on the number of valid moves in any position: ten tiles that
+    // can each reach at most the 48 squares outside the corners and the
+    // opponent's goals.
+    public static final int MAX_MOVES = 10 * 48;
 
-    private int[][] board;
+    // Square masks. Square (x,y) is bit x * SIZE + y of a long.
+    static final long CORNERS = bit(0, 0) | bit(0, SIZE - 1) |
+            bit(SIZE - 1, 0) | bit(SIZE - 1, SIZE - 1);
+    static final long LEFT_RIGHT = 0xFFL | (0xFFL << (SIZE * (SIZE - 1))); // WHITE goals
+    static final long TOP_BOTTOM = 0x0101010101010101L |
+            0x8080808080808080L; // BLACK goals
+    static final long CENTRAL = (0xFFFFL << (3 * SIZE)) |
+            0x1818181818181818L; // x or y is 3 or 4
+    // Squares toGoal maps to GOAL1 and GOAL2
+    static final long GOAL1_SQUARES = 0xFFL | 0x0101010101010101L;
+    static final long GOAL2_SQUARES = (0xFFL << (SIZE * (SIZE - 1)) |
+            0x8080808080808080L) & ~GOAL1_SQUARES;
+
+    // One 64 bit mask per color; a set bit means a tile of that color occupies
+    // the corresponding square.
+    private long blacks, whites;
     private int numBlacks, numWhites; // Keep track of number of tiles each player placed
     private int turn;
+    private long key; // Zobrist key of the tiles and the player to move
+    // For each color, the number of that color's tiles touching each square,
+    // and the masks of squares touched by at least one and at least two of
+    // them. Used to test rule 4 without searching the neighborhood.
+    private byte[][] touchCounts;
+    private long[] touching, crowded;
+    // For each color, the squares of its tiles in increasing order, so tiles
+    // can be visited without scanning the board. pieceIndex maps an occupied
+    // square to its slot in the list.
+    private int[][] pieces;
+    private int[] pieceCounts;
+    private byte[] pieceIndex;
+    // Visibility graph: for each occupied square, the mask of tiles of the
+    // same color linked to it, i.e. the first tile in some direction that is
+    // not in the same goal. The direction of a link is the ray of Rays.RAY
+    // that contains it. linkCounts holds the number of links of each color.
+    private long[] links;
+    private int[] linkCounts;
+    // Packed getChain result for each color, or NO_CHAIN once a link of that
+    // color has changed. makeMove saves both on chainHistory, one pair per
+    // ply, so that unmakeMove can restore them instead of searching again.
+    private long[] chains;
+    private long[] chainHistory;
+    private int ply;
+    // The nodes chain fills in for each color, and the search it runs when a
+    // result is not known, so that neither allocates
+    private NetworkFinder.SearchNode[] chainNodes;
+    private NetworkFinder.ChainSearch chainSearch;
 
     /**
      * Initializes the Board object. The game board is represented
-     * as a SIZE x SIZE matrix, where the coordinates (x, y) corresponds
-     * to gameBoard[x][y].
+     * as one bitboard per color, where the coordinates (x, y) corresponds
+     * to bit x * SIZE + y of each mask.
      */
     public Board() {
-        board = new int[SIZE][SIZE];
-        for (int x = 0; x < SIZE; x++) {
-            for (int y = 0; y < SIZE; y++) {
-                board[x][y] = Tile.EMPTY;
-            }
-        }
+        blacks = 0;
+        whites = 0;
         turn = Tile.WHITE; // White goes first
         numBlacks = 0;
         numWhites = 0;
+        key = 0;
+        touchCounts = new byte[2][Rays.SQUARES];
+        touching = new long[2];
+        crowded = new long[2];
+        pieces = new int[2][MAX_TILES];
+        pieceCounts = new int[2];
+        pieceIndex = new byte[Rays.SQUARES];
+        links = new long[Rays.SQUARES];
+        linkCounts = new int[2];
+        chains = new long[] { NO_CHAIN, NO_CHAIN };
+        chainHistory = new long[2 * INITIAL_PLIES];
+        ply = 0;
+        chainNodes = new NetworkFinder.SearchNode[] {
+                new NetworkFinder.SearchNode(), new NetworkFinder.SearchNode() };
         loadWeights();
     }
 
     // Copy constructor
     public Board(Board b) {
-        board = new int[SIZE][SIZE];
-        for (int x = 0; x < SIZE; x++) {
-            for (int y = 0; y < SIZE; y++) {
-                board[x][y] = b.board[x][y];
-            }
-        }
+        blacks = b.blacks;
+        whites = b.whites;
         turn = b.turn;
         numBlacks = b.numBlacks;
         numWhites = b.numWhites;
+        key = b.key;
+        touchCounts = new byte[][] { b.touchCounts[0].clone(), b.touchCounts[1].clone() };
+        touching = b.touching.clone();
+        crowded = b.crowded.clone();
+        pieces = new int[][] { b.pieces[0].clone(), b.pieces[1].clone() };
+        pieceCounts = b.pieceCounts.clone();
+        pieceIndex = b.pieceIndex.clone();
+        links = b.links.clone();
+        linkCounts = b.linkCounts.clone();
+        chains = b.chains.clone();
+        chainHistory = new long[2 * INITIAL_PLIES];
+        ply = 0;
+        chainNodes = new NetworkFinder.SearchNode[] {
+                new NetworkFinder.SearchNode(), new NetworkFinder.SearchNode() };
     }
 
     // Copies the board and then executes the Move m
@@ -68,11 +142,46 @@ public class Board {
      * BOARD                                                             *
      *********************************************************************/
 
+    /**
+     * Returns the index of square (x, y) in the bitboards.
+     */
+    static int square(int x, int y) {
+        return x * SIZE + y;
+    }
+
+    /**
+     * Returns the bitboard with only square (x, y) set.
+     */
+    static long bit(int x, int y) {
+        return 1L << square(x, y);
+    }
+
+    /**
+     * Returns the mask of squares occupied by tiles of the given color.
+     */
+    long tiles(int color) {
+        return color == Tile.WHITE ? whites : blacks;
+    }
+
+    /**
+     * Returns the mask of all occupied squares.
+     */
+    long occupied() {
+        return blacks | whites;
+    }
+
     /**
      * Returns the tile at (x, y).
      */
     public int tileAt(int x, int y) {
-        return board[x][y];
+        long bit = bit(x, y);
+        if ((whites & bit) != 0) {
+            return Tile.WHITE;
+        }
+        if ((blacks & bit) != 0) {
+            return Tile.BLACK;
+        }
+        return Tile.EMPTY;
     }
 
     /**
@@ -113,25 +222,60 @@ public class Board {
         return 0;
     }
 
+    /**
+     * Returns the goal square sq lies in, as toGoal does.
+     */
+    static int goalOf(int sq) {
+        return toGoal(sq / SIZE, sq % SIZE);
+    }
+
     public List<Position> getTiles(int color) {
-        List<Position> tiles = new ArrayList<>(10);
-        for (int x = 0; x < SIZE; x++ ){
-            for (int y = 0; y < SIZE; y++) {
-                if (isEmpty(x, y)) {
-                    continue;
-                }
-                if (tileAt(x, y) == color) {
-                    tiles.add(new Position(x, y));
-                }
-            }
+        List<Position> tiles = new ArrayList<>(MAX_TILES);
+        for (int i = 0; i < pieceCount(color); i++) {
+            int sq = piece(color, i);
+            tiles.add(Position.of(sq));
         }
         return tiles;
     }
 
+    /**
+     * Returns the number of tiles of the given color on the board.
+     */
+    int pieceCount(int color) {
+        return pieceCounts[color];
+    }
+
+    /**
+     * Returns the square of the i-th tile of the given color, counting tiles
+     * in increasing square order from 0.
+     */
+    int piece(int color, int i) {
+        return pieces[color][i];
+    }
+
+    /**
+     * Returns the mask of tiles linked to the tile on square sq in the
+     * visibility graph.
+     */
+    long links(int sq) {
+        return links[sq];
+    }
+
+    /**
+     * Returns the number of pairs of linked tiles of the given color.
+     */
+    int linkCount(int color) {
+        return linkCounts[color];
+    }
+
     public List<Board> getSuccessors() {
-        List<Board> successors = new ArrayList<>();
-        for (Move m : getValidMoves()) {
-            successors.add(new Board(this, m));
+        int[] moves = new int[MAX_MOVES];
+        int count = generateMoves(moves);
+        List<Board> successors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Board successor = new Board(this);
+            successor.executeMove(moves[i]);
+            successors.add(successor);
         }
         return successors;
     }
@@ -140,39 +284,83 @@ public class Board {
      * Returns a list of valid moves for the current player.
      */
     public List<Move> getValidMoves() {
-        List<Move> moves = new ArrayList<>(64);
-        if (getCurrentPlayerTileCount() < 10) {
+        int[] packed = new int[MAX_MOVES];
+        int count = generateMoves(packed);
+        List<Move> moves = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            moves.add(PackedMove.toMove(packed[i]));
+        }
+        return moves;
+    }
+
+    /**
+     * Writes the valid moves for the current player into moves, packed as
+     * described in PackedMove, and returns how many were written. moves must
+     * have room for MAX_MOVES entries. Nothing is allocated, so search code can
+     * reuse one buffer per ply.
+     */
+    public int generateMoves(int[] moves) {
+        return generateMoves(turn, moves);
+    }
+
+    /**
+     * Writes the valid moves for the given color into moves, as if it were
+     * that color's turn, and returns how many were written.
+     */
+    int generateMoves(int color, int[] moves) {
+        int count = 0;
+        long legal = placementMask(color);
+        if (getTileCount(color) < MAX_TILES) {
             // ADD MOVES
-            for (int x = 0; x < SIZE; x++) {
-                for (int y = 0; y < SIZE; y++) {
-                    if (isValidTilePlacement(x, y, turn)) {
-                        moves.add(new Move(x, y));
-                    }
-                }
+            for (; legal != 0; legal &= legal - 1) {
+                moves[count++] = PackedMove.add(Long.numberOfTrailingZeros(legal));
             }
         }
         else {
             // STEP MOVES
-            for (int x2 = 0; x2 < SIZE; x2++) {
-                for (int y2 = 0; y2 < SIZE; y2++) {
-                    if (tileAt(x2, y2) == turn) {
-                        removeTile(x2, y2);
-                        for (int x1 = 0; x1 < SIZE; x1++) {
-                            for (int y1 = 0; y1 < SIZE; y1++) {
-                                if (x1 == x2 && y1 == y2) {
-                                    continue;
-                                }
-                                if (isValidTilePlacement(x1, y1, turn)) {
-                                    moves.add(new Move(x1, y1, x2, y2));
-                                }
-                            }
-                        }
-                        setTile(x2, y2, turn);
-                    }
+            for (long own = tiles(color); own != 0; own &= own - 1) {
+                int from = Long.numberOfTrailingZeros(own);
+                // Lifting the tile only changes rule 4 for squares near it
+                long near = Rays.NEAR[from];
+                long to = (legal & ~near) |
+                        (placementMaskWithout(color, from) & near);
+                for (; to != 0; to &= to - 1) {
+                    moves[count++] = PackedMove.step(from,
+                            Long.numberOfTrailingZeros(to));
                 }
             }
         }
-        return moves;
+        return count;
+    }
+
+    /**
+     * Returns the mask of squares where a tile of the given color can be
+     * placed, following all four rules.
+     */
+    private long placementMask(int color) {
+        long cluster = crowded[color] |
+                Rays.adjacent(tiles(color) & touching[color]);
+        return ~(CORNERS | opponentGoals(color) | occupied() | cluster);
+    }
+
+    /**
+     * Returns the mask of squares other than from where a tile of the given
+     * color can be placed once its tile on square from is lifted. Rule 4 is
+     * computed from the remaining tiles without touching the board.
+     */
+    private long placementMaskWithout(int color, int from) {
+        long lifted = 1L << from;
+        long own = tiles(color) & ~lifted;
+        long cluster = Rays.crowded(own) |
+                Rays.adjacent(own & Rays.adjacent(own));
+        return ~(CORNERS | opponentGoals(color) | occupied() | cluster);
+    }
+
+    /**
+     * Returns the mask of the goals a tile of the given color may not enter.
+     */
+    private static long opponentGoals(int color) {
+        return color == Tile.BLACK ? LEFT_RIGHT : TOP_BOTTOM;
     }
 
     /**
@@ -183,13 +371,12 @@ public class Board {
      * 3. Is it a long network? Do not intentionally give bonus points to
      * longer chains, limit the score obtained from length to 6.
      */
-    private int scoreChain(LinkedList<Position> chain) {
+    private int scoreChain(NetworkFinder.SearchNode chain) {
         int score = 0;
-        int size = chain.size();
+        int size = chain.length;
         if (size > 4) {
-            Position p1 = chain.getFirst();
-            Position p2 = chain.getLast();
-            if (!p1.equals(p2) && Position.isOppositeGoal(p1, p2)) {
+            if (chain.firstGoal != chain.lastGoal && chain.firstGoal != 0 &&
+                    chain.lastGoal != 0) {
                 score = 5;
             }
         }
@@ -199,9 +386,7 @@ public class Board {
         else score = score + 3 * size;
         // Penalize gaps
         if (size > 3) {
-            for (Position p : chain) {
-                score = score - p.space;
-            }
+            score = score - chain.gaps;
         }
         return score;
     }
@@ -210,27 +395,13 @@ public class Board {
      * Scores general placement of a player's tiles, such as whether tiles are
      * placed in goal regions, center of the board, etc.
      */
-    private int scoreTiles(List<Position> tiles, int tileCount) {
-        int score = 0;
-        int numPairs = 0;
-        int goal1Count = 0;
-        int goal2Count = 0;
-        for (Position p : tiles) {
-            numPairs = numPairs + NetworkFinder.getConnected(this, p).size();
-            if (p.goal == GOAL1) {
-                goal1Count ++;
-                if (Position.isCentral(p)) {
-                    score = score + 1;
-                }
-            }
-            if (p.goal == GOAL2) {
-                goal2Count ++;
-                if (Position.isCentral(p)) {
-                    score = score + 1;
-                }
-            }
-        }
-        score = score + numPairs / 2;
+    private int scoreTiles(int color, int tileCount) {
+        long own = tiles(color);
+        int goal1Count = Long.bitCount(own & GOAL1_SQUARES);
+        int goal2Count = Long.bitCount(own & GOAL2_SQUARES);
+        // One point for each tile in a goal near its middle
+        int score = Long.bitCount(own & (GOAL1_SQUARES | GOAL2_SQUARES) & CENTRAL);
+        score = score + linkCount(color);
         if (tileCount < 3) {
             if ((goal1Count == 1 && goal2Count == 0) ||
                     (goal1Count == 0 && goal2Count == 1)) {
@@ -258,11 +429,24 @@ public class Board {
      * should return the same value with the opposite sign as evaluate(other).
      */
     public int evaluate(int player) {
-        NetworkFinder.SearchNode self =
-                NetworkFinder.getChain(this, player);
+        NetworkFinder.SearchNode self = chain(player);
         int opp = Tile.getOtherColor(player);
-        NetworkFinder.SearchNode other =
-                NetworkFinder.getChain(this, opp);
+        NetworkFinder.SearchNode other = chain(opp);
+        int result = result(player, self, other);
+        if (result != 0) {
+            return result;
+        }
+        // Score the current board from player's perspective
+        return scoreChain(self) + scoreTiles(player, getTileCount(player))
+                - scoreChain(other) - scoreTiles(opp, getTileCount(opp));
+    }
+
+    /**
+     * Returns MAX if player has won, MIN if player has lost, and 0 if the game
+     * is not over, given the longest chains of player and the opponent.
+     */
+    int result(int player, NetworkFinder.SearchNode self,
+               NetworkFinder.SearchNode other) {
         // Check if someone won
         if (self.isNetwork && other.isNetwork) {
             // Both players wound up with networks, player who did not make the
@@ -279,16 +463,90 @@ public class Board {
         if (other.isNetwork) {
             return MIN;
         }
-        List<Position> selfTiles = getTiles(player);
-        List<Position> otherTiles = getTiles(opp);
-        // Score the current board from player's perspective
-        return scoreChain(self.chain) + scoreTiles(selfTiles, getTileCount(player))
-                - scoreChain(other.chain) - scoreTiles(otherTiles, getTileCount(opp));
+        return 0;
+    }
+
+    /**
+     * Returns the result of NetworkFinder.getChain for the given color,
+     * searching only if a link of that color changed since the last search.
+     * The node belongs to the board and is overwritten by the next call for
+     * the same color.
+     */
+    NetworkFinder.SearchNode chain(int color) {
+        if (chains[color] == NO_CHAIN) {
+            chains[color] = NetworkFinder.packedChain(this, color);
+        }
+        return NetworkFinder.SearchNode.unpack(chains[color], chainNodes[color]);
+    }
+
+    /**
+     * Returns the chain search used for this board, creating it on first use.
+     */
+    NetworkFinder.ChainSearch chainSearch() {
+        if (chainSearch == null) {
+            chainSearch = new NetworkFinder.ChainSearch(this);
+        }
+        return chainSearch;
     }
 
     public int evaluateWithWeight(int player) {
-        return (int) (stateWeights.getOrDefault(board.hashCode(), 1.0) *
+        LongCache results = evalCache;
+        if (results == null) {
+            return (int) (stateWeights.getOrDefault(key, 1.0) *
+                    evaluate(player));
+        }
+        long cacheKey = key ^ Zobrist.COLOR[player];
+        long cached = results.get(cacheKey);
+        if (cached != LongCache.MISS) {
+            return (int) cached;
+        }
+        int score = (int) (stateWeights.getOrDefault(key, 1.0) *
                 evaluate(player));
+        results.put(cacheKey, score);
+        return score;
+    }
+
+    /**
+     * Replaces the evaluateWithWeight result cache by an empty one using at
+     * most the given number of megabytes. 0 turns caching off.
+     */
+    public static void setEvalCacheMegabytes(int megabytes) {
+        evalCache = megabytes > 0 ? LongCache.withMegabytes(megabytes) : null;
+    }
+
+    /**
+     * Returns the evaluateWithWeight result cache, for reporting its hit rate
+     * and memory use, or null if caching is off.
+     */
+    public static LongCache getEvalCache() {
+        return evalCache;
+    }
+
+    /**
+     * Empties the evaluateWithWeight result cache. Called whenever
+     * stateWeights changes, since cached scores include the old weights.
+     */
+    private static void clearEvalCache() {
+        if (evalCache != null) {
+            evalCache.clear();
+        }
+    }
+
+    /**
+     * Returns a 64 bit key identifying the tiles on the board and the player
+     * to move. Equal positions always have equal keys, so the key can be used
+     * to index tables of positions, like stateWeights.
+     */
+    public long key() {
+        return key;
+    }
+
+    /**
+     * Returns a key identifying only the tiles on the board, whoever is to
+     * move.
+     */
+    long tilesKey() {
+        return turn == Tile.BLACK ? key ^ Zobrist.BLACK_TO_MOVE : key;
     }
 
     public int turn() {
@@ -308,7 +566,10 @@ public class Board {
      * Adds a Tile to the board at (x,y).
      */
     public void setTile(int x, int y, int color) {
-        board[x][y] = color;
+        removeTile(x, y);
+        if (color != Tile.EMPTY) {
+            place(square(x, y), color);
+        }
     }
 
     /**
@@ -322,8 +583,10 @@ public class Board {
      * Removes and returns the tile on the board at (x,y)
      */
     public int removeTile(int x, int y) {
-        int tile = board[x][y];
-        board[x][y] = Tile.EMPTY;
+        int tile = tileAt(x, y);
+        if (tile != Tile.EMPTY) {
+            lift(square(x, y));
+        }
         return tile;
     }
 
@@ -334,6 +597,132 @@ public class Board {
         return removeTile(p.x, p.y);
     }
 
+    /**
+     * Puts a tile of the given color on the empty square sq.
+     */
+    private void place(int sq, int color) {
+        long occupied = occupied();
+        if (color == Tile.WHITE) {
+            whites |= 1L << sq;
+        }
+        else {
+            blacks |= 1L << sq;
+        }
+        key ^= Zobrist.TILE[color][sq];
+        // Insert sq into the sorted piece list
+        int[] list = pieces[color];
+        int i = pieceCounts[color]++;
+        for (; i > 0 && list[i - 1] > sq; i--) {
+            list[i] = list[i - 1];
+            pieceIndex[list[i]] = (byte) i;
+        }
+        list[i] = sq;
+        pieceIndex[sq] = (byte) i;
+        byte[] counts = touchCounts[color];
+        for (long adj = Rays.ADJACENT[sq]; adj != 0; adj &= adj - 1) {
+            int n = Long.numberOfTrailingZeros(adj);
+            counts[n]++;
+            if (counts[n] == 1) {
+                touching[color] |= 1L << n;
+            }
+            else if (counts[n] == 2) {
+                crowded[color] |= 1L << n;
+            }
+        }
+        // sq now stands between the first tiles on either side of it
+        for (int dir = 0; dir < 4; dir++) {
+            int before = Rays.firstBlocker(sq, dir, occupied);
+            int after = Rays.firstBlocker(sq, 7 - dir, occupied);
+            if (before >= 0 && after >= 0) {
+                unlink(before, after);
+            }
+            if (before >= 0) {
+                link(sq, before);
+            }
+            if (after >= 0) {
+                link(sq, after);
+            }
+        }
+    }
+
+    /**
+     * Takes the tile off the occupied square sq and returns its color.
+     */
+    private int lift(int sq) {
+        int color = (whites & (1L << sq)) != 0 ? Tile.WHITE : Tile.BLACK;
+        whites &= ~(1L << sq);
+        blacks &= ~(1L << sq);
+        key ^= Zobrist.TILE[color][sq];
+        // Close the gap sq leaves in the sorted piece list
+        int[] list = pieces[color];
+        int count = --pieceCounts[color];
+        for (int i = pieceIndex[sq]; i < count; i++) {
+            list[i] = list[i + 1];
+            pieceIndex[list[i]] = (byte) i;
+        }
+        byte[] counts = touchCounts[color];
+        for (long adj = Rays.ADJACENT[sq]; adj != 0; adj &= adj - 1) {
+            int n = Long.numberOfTrailingZeros(adj);
+            counts[n]--;
+            if (counts[n] == 0) {
+                touching[color] &= ~(1L << n);
+            }
+            else if (counts[n] == 1) {
+                crowded[color] &= ~(1L << n);
+            }
+        }
+        // The first tiles on either side of sq can now see each other
+        long occupied = occupied();
+        for (int dir = 0; dir < 4; dir++) {
+            int before = Rays.firstBlocker(sq, dir, occupied);
+            int after = Rays.firstBlocker(sq, 7 - dir, occupied);
+            if (before >= 0) {
+                unlink(sq, before);
+            }
+            if (after >= 0) {
+                unlink(sq, after);
+            }
+            if (before >= 0 && after >= 0) {
+                link(before, after);
+            }
+        }
+        return color;
+    }
+
+    /**
+     * Adds the link between the tiles on squares a and b, which see each
+     * other, if they are the same color and not in the same goal.
+     */
+    private void link(int a, int b) {
+        long aWhite = (whites >>> a) & 1;
+        long bWhite = (whites >>> b) & 1;
+        if (aWhite != bWhite) {
+            return;
+        }
+        int goal = goalOf(a);
+        if (goal != 0 && goal == goalOf(b)) {
+            return;
+        }
+        links[a] |= 1L << b;
+        links[b] |= 1L << a;
+        linkCounts[(int) aWhite]++;
+        chains[(int) aWhite] = NO_CHAIN;
+    }
+
+    /**
+     * Removes the link between squares a and b, if there is one. The tile on
+     * square b must still be on the board.
+     */
+    private void unlink(int a, int b) {
+        if ((links[b] & (1L << a)) != 0) {
+            int color = (int) ((whites >>> b) & 1);
+            links[a] &= ~(1L << b);
+            links[b] &= ~(1L << a);
+            linkCounts[color]--;
+            chains[color] = NO_CHAIN;
+        }
+    }
+
     /**
      * Changes turns, ensures only the appropriate player can make a move.
      */
@@ -344,62 +733,84 @@ public class Board {
         else {
             turn = Tile.WHITE;
         }
+        key ^= Zobrist.BLACK_TO_MOVE;
     }
 
     /**
      * If the Move is valid, execute and return true, otherwise return false.
      */
     public boolean executeMove(Move m) {
-        return (m.moveKind == Move.ADD && executeAddMove(m)) ||
-                (m.moveKind == Move.STEP && executeStepMove(m));
+        if (isValidMove(m)) {
+            executeMove(PackedMove.pack(m));
+            return true;
+        }
+        return false;
     }
 
     /**
-     * Parses the add Move m and modifies the board appropriately. Returns true
-     * if the move is executed.
+     * Executes the packed move, which must be valid for the current player,
+     * e.g. one written by generateMoves.
      */
-    private boolean executeAddMove(Move m) {
-        if (isValidAddMove(m)) {
-            board[m.x1][m.y1] = turn;
-            if (turn == Tile.WHITE) {
-                numWhites ++;
-            }
-            else numBlacks ++;
-            endTurn();
-            return true;
-        }
-        return false;
+    public void executeMove(int move) {
+        makeMove(turn, move);
+        endTurn();
     }
 
     /**
-     * Parses the step Move m and modifies the board appropriately. Returns true
-     * if the move is executed.
+     * Moves the tiles of the given color as the packed move says, without
+     * changing turns.
      */
-    private boolean executeStepMove(Move m) {
-        if (isValidStepMove(m)) {
-            removeTile(m.x2, m.y2);
-            board[m.x1][m.y1] = turn;
-            endTurn();
-            return true;
+    void makeMove(int color, int move) {
+        if (2 * ply + 2 > chainHistory.length) {
+            chainHistory = Arrays.copyOf(chainHistory, 2 * chainHistory.length);
         }
-        return false;
+        chainHistory[2 * ply] = chains[Tile.BLACK];
+        chainHistory[2 * ply + 1] = chains[Tile.WHITE];
+        ply++;
+        if (PackedMove.kind(move) == Move.STEP) {
+            lift(PackedMove.from(move));
+        }
+        else if (color == Tile.WHITE) {
+            numWhites ++;
+        }
+        else numBlacks ++;
+        place(PackedMove.to(move), color);
     }
 
     /**
      * Undo a move, for game tree search.
      */
     public void undoMove(Move m) {
+        undoMove(PackedMove.pack(m));
+    }
+
+    /**
+     * Undo a packed move, for game tree search. The move must be the last one
+     * executed.
+     */
+    public void undoMove(int move) {
         endTurn();
-        if (m.moveKind == Move.ADD) {
-            setTile(m.x1, m.y1, Tile.EMPTY);
-            if (turn == Tile.WHITE) {
-                numWhites --;
-            }
-            else numBlacks --;
+        unmakeMove(turn, move);
+    }
+
+    /**
+     * Reverts makeMove(color, move), which must be the last change made.
+     */
+    void unmakeMove(int color, int move) {
+        lift(PackedMove.to(move));
+        if (PackedMove.kind(move) == Move.STEP) {
+            place(PackedMove.from(move), color);
+        }
+        else if (color == Tile.WHITE) {
+            numWhites --;
         }
-        if (m.moveKind == Move.STEP) {
-            setTile(m.x1, m.y1, Tile.EMPTY);
-            setTile(m.x2, m.y2, turn);
+        else numBlacks --;
+        if (ply > 0) {
+            // Otherwise the move was made on the board this one was copied
+            // from, and the changed links have already cleared chains
+            ply--;
+            chains[Tile.BLACK] = chainHistory[2 * ply];
+            chains[Tile.WHITE] = chainHistory[2 * ply + 1];
         }
     }
 
@@ -471,7 +882,7 @@ public class Board {
      * Rule 1: No chip may be placed in any of the four corners.
      */
     private static boolean isCorner(int x, int y) {
-        return (x == 0 || x == Board.SIZE - 1) && (y == 0 || y == Board.SIZE);
+        return (CORNERS & bit(x, y)) != 0;
     }
 
     /**
@@ -479,19 +890,14 @@ public class Board {
      * is top and bottom, WHITE goal is left and right
      */
     private static boolean isOpponentGoal(int x, int y, int color) {
-        if (color == Tile.BLACK) {
-            return x == 0 || x == Board.SIZE - 1;
-        }
-        else {
-            return y == 0 || y == Board.SIZE - 1;
-        }
+        return (opponentGoals(color) & bit(x, y)) != 0;
     }
 
     /**
      * Rule 3: No chip may be placed in a square that is already occupied.
      */
     private boolean isEmpty(int x, int y) {
-        return tileAt(x, y) == Tile.EMPTY;
+        return (occupied() & bit(x, y)) == 0;
     }
 
     boolean isEmpty(Position p) {
@@ -500,37 +906,17 @@ public class Board {
 
     /**
      * Rule 4: A player may not have more than two chips in a connected group,
-     * whether connected orthogonally or diagonally.
+     * whether connected orthogonally or diagonally. A tile on the empty square
+     * (x,y) forms a group of three if it would touch two tiles of its color,
+     * or one that already touches another.
      */
     private boolean formsCluster(int x, int y, int color) {
-        Set<Position> visited = new HashSet<>();
-        Neighbors n1 = new Neighbors(x, y);
-        int count = 0;
-        for (Position p1 : n1) {
-            if (p1 == null || visited.contains(p1)) {
-                continue;
-            }
-            visited.add(p1);
-            if (tileAt(p1.x, p1.y) == color) {
-                if (count == 1) {
-                    return true;
-                }
-                count = count + 1;
-                Neighbors n2 = new Neighbors(p1);
-                for (Position p2 : n2) {
-                    if (p2 == null || visited.contains(p2)) {
-                        continue;
-                    }
-                    if (tileAt(p2.x, p2.y) == color) {
-                        if (count == 1) {
-                            return true;
-                        }
-                        count = count + 1;
-                    }
-                }
-            }
+        int sq = square(x, y);
+        if ((crowded[color] & (1L << sq)) != 0) {
+            return true;
         }
-        return false;
+        long paired = tiles(color) & touching[color];
+        return (Rays.ADJACENT[sq] & paired) != 0;
     }
 
     /**
@@ -547,22 +933,37 @@ public class Board {
         return isOnBoard(p.x, p.y);
     }
 
+    /**
+     * Turns the messages about loading, saving and updating stateWeights on
+     * or off. On by default.
+     */
+    public static void setVerbose(boolean on) {
+        verbose = on;
+    }
+
+    private static void report(Object message) {
+        if (verbose) {
+            System.out.println(message);
+        }
+    }
+
     public static void updateWeights(int winner) {
         int count = 1;
-        for (int state : stateSeq) {
+        for (long state : stateSeq) {
             double weight = stateWeights.getOrDefault(state, 1.0);
-            System.out.println("Current hash: " + state + " - " + weight);
+            report("Current hash: " + state + " - " + weight);
             if (count % 2 == winner) {
                 // white won
                 stateWeights.put(state, weight * 2);
-                System.out.println("New hash: " + state + " - " + stateWeights.get(state));
+                report("New hash: " + state + " - " + stateWeights.get(state));
             }
             else {
                 stateWeights.put(state, weight / 2);
-                System.out.println("New hash: " + state + " - " + stateWeights.get(state));
+                report("New hash: " + state + " - " + stateWeights.get(state));
             }
             count ++;
         }
+        clearEvalCache();
     }
 
     public static void loadWeights() {
@@ -572,16 +973,26 @@ public class Board {
             ObjectInputStream ois = new ObjectInputStream(fis);
             Object obj = ois.readObject();
             stateWeights = (HashMap) obj;
-            System.out.println("Successfully loaded!");
+            for (Object state : stateWeights.keySet()) {
+                if (!(state instanceof Long)) {
+                    // Saved under the old int hash, which no key matches
+                    stateWeights = new HashMap<>();
+                    report("Discarded weights with old keys");
+                }
+                break;
+            }
+            clearEvalCache();
+            report("Successfully loaded!");
 
         }
         catch (IOException e) {
             stateWeights = new HashMap<>();
+            clearEvalCache();
             saveWeights();
-            System.out.println("New weights made and saved");
+            report("New weights made and saved");
         }
         catch (ClassNotFoundException cnfe) {
-            System.out.println(cnfe);
+            report(cnfe);
         }
     }
 
@@ -594,32 +1005,14 @@ public class Board {
             oos.writeObject(stateWeights);
         }
         catch (IOException e) {
-            System.out.println(e);
+            report(e);
         }
 
     }
 
     @Override
     public int hashCode() {
-        int hash = 0;
-        for (int x = 0; x < SIZE; x++) {
-            for (int y = 0; y < SIZE; y++) {
-                if (tileAt(x, y) == Tile.BLACK) {
-                    hash += hash(hash, "B" + x + y);
-                }
-                if (tileAt(x, y) == Tile.WHITE) {
-                    hash += hash(hash, "W" + x + y);
-                }
-            }
-        }
-        return hash;
-    }
-
-    private static int hash(int hash, String s) {
-        for (int i = 0; i < s.length(); i++) {
-            hash = (127 * hash + s.charAt(i)) % 16908799;
-        }
-        return hash;
+        return Long.hashCode(key);
     }
 
     public void printBoard() {
@@ -628,13 +1021,13 @@ public class Board {
         int count = 0;
         for (int y = 0; y < SIZE; y++) {
             for (int x = 0; x < SIZE; x++) {
-                if (board[x][y] == Tile.EMPTY) {
+                if (tileAt(x, y) == Tile.EMPTY) {
                     sb.append("E ");
                 }
-                if (board[x][y] == Tile.WHITE) {
+                if (tileAt(x, y) == Tile.WHITE) {
                     sb.append("W ");
                 }
-                if (board[x][y] == Tile.BLACK) {
+                if (tileAt(x, y) == Tile.BLACK) {
                     sb.append("B ");
                 }
             }
@@ -647,10 +1040,10 @@ public class Board {
 
     public static void main(String[] args) {
         Board b = new Board();
-        System.out.println(b.hashCode());
+        System.out.println(b.key());
         b.executeMove(new Move(5, 5));
-        System.out.println(b.hashCode());
-        for (int hash : Board.stateWeights.keySet()) {
+        System.out.println(b.key());
+        for (long hash : Board.stateWeights.keySet()) {
             System.out.println(hash + " - " + Board.stateWeights.get(hash));
         }
     }
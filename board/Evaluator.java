@@ -0,0 +1,35 @@
+package board;
+
+/**
+ * Scores a board from one player's point of view, for the search in
+ * MachinePlayer. Scores of Board.MAX or more mean the player has won, and
+ * scores of Board.MIN or less that they have lost; every other score must lie
+ * strictly between the two.
+ *
+ * An Evaluator may keep scratch space between calls, so one instance must
+ * not be used by two threads at once; each thread gets its own from copy.
+ */
+public interface Evaluator {
+
+    // The hand-written score of Board.evaluate, scaled by stateWeights
+    Evaluator WEIGHTED = new Evaluator() {
+        @Override
+        public int evaluate(Board b, int player) {
+            return b.evaluateWithWeight(player);
+        }
+    };
+
+    /**
+     * Returns the score of board b for the given player. b must be left
+     * unchanged.
+     */
+    int evaluate(Board b, int player);
+
+    /**
+     * Returns an evaluator giving the same scores that can be used in another
+     * thread. Evaluators without scratch space may return themselves.
+     */
+    default Evaluator copy() {
+        return this;
+    }
+}
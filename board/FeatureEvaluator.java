@@ -0,0 +1,148 @@
+package board;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Scores a board as the dot product of a fixed vector of features and a
+ * vector of weights. Each feature is the player's count minus the opponent's,
+ * so a board scores the same with the opposite sign for the other player.
+ * Unlike stateWeights, which only changes the score of a position seen
+ * before, weights apply to every position with the same features.
+ *
+ * The features are written into an array kept by the evaluator, so scoring
+ * does not allocate.
+ */
+public class FeatureEvaluator implements Evaluator {
+
+    // Feature indices
+    public static final int GOALS = 0; // Goals holding at least one tile
+    public static final int PAIRS = 1; // Pairs of linked tiles
+    public static final int CHAIN_LENGTH = 2; // Longest chain, up to 6 tiles
+    public static final int GAPS = 3; // Gaps of the longest chain if over 3 tiles
+    public static final int CENTRAL = 4; // Tiles in a goal near its middle
+    public static final int SPANS = 5; // Longest chain joins both goals
+    // Has a move that might complete a network next turn, by Threats.mayWin
+    public static final int THREATS = 6;
+    public static final int FEATURES = 7;
+
+    // Close to the terms of Board.evaluate, with a bonus for threats
+    public static final float[] DEFAULT_WEIGHTS =
+            {1f, 1f, 3f, -1f, 1f, 5f, 20f};
+
+    // Non-final scores are kept this far inside MIN and MAX
+    private static final int LIMIT = Board.MAX / 2;
+
+    private final float[] weights;
+    private final int[] features;
+    private final int[] moves; // Scratch space for Threats
+
+    /**
+     * Creates an evaluator using the given weights, one per feature.
+     */
+    public FeatureEvaluator(float[] weights) {
+        if (weights.length != FEATURES) {
+            throw new IllegalArgumentException("Expected " + FEATURES +
+                    " weights, got " + weights.length);
+        }
+        this.weights = weights.clone();
+        features = new int[FEATURES];
+        moves = new int[Board.MAX_MOVES];
+    }
+
+    public FeatureEvaluator() {
+        this(DEFAULT_WEIGHTS);
+    }
+
+    /**
+     * Reads weights written by save from the given file.
+     */
+    public static FeatureEvaluator load(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(path)))) {
+            int count = in.readInt();
+            if (count != FEATURES) {
+                throw new IOException(path + " holds " + count +
+                        " weights, expected " + FEATURES);
+            }
+            float[] weights = new float[count];
+            for (int i = 0; i < count; i++) {
+                weights[i] = in.readFloat();
+            }
+            return new FeatureEvaluator(weights);
+        }
+    }
+
+    /**
+     * Writes the weights to the given file: their count followed by each
+     * weight, in the big-endian format of DataOutputStream.
+     */
+    public void save(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(weights.length);
+            for (float w : weights) {
+                out.writeFloat(w);
+            }
+        }
+    }
+
+    @Override
+    public Evaluator copy() {
+        return new FeatureEvaluator(weights);
+    }
+
+    public float[] getWeights() {
+        return weights.clone();
+    }
+
+    @Override
+    public int evaluate(Board b, int player) {
+        int opp = Tile.getOtherColor(player);
+        NetworkFinder.SearchNode self = b.chain(player);
+        NetworkFinder.SearchNode other = b.chain(opp);
+        int result = b.result(player, self, other);
+        if (result != 0) {
+            return result;
+        }
+        Arrays.fill(features, 0);
+        addFeatures(b, player, self, 1);
+        addFeatures(b, opp, other, -1);
+        float score = 0;
+        for (int i = 0; i < FEATURES; i++) {
+            score += weights[i] * features[i];
+        }
+        return Math.max(-LIMIT, Math.min(LIMIT, Math.round(score)));
+    }
+
+    /**
+     * Adds sign times the features of color's tiles and longest chain to the
+     * feature vector.
+     */
+    private void addFeatures(Board b, int color,
+                             NetworkFinder.SearchNode chain, int sign) {
+        long own = b.tiles(color);
+        int goals = 0;
+        if ((own & Board.GOAL1_SQUARES) != 0) {
+            goals++;
+        }
+        if ((own & Board.GOAL2_SQUARES) != 0) {
+            goals++;
+        }
+        features[GOALS] += sign * goals;
+        features[PAIRS] += sign * b.linkCount(color);
+        features[CHAIN_LENGTH] += sign * Math.min(chain.length, 6);
+        if (chain.length > 3) {
+            features[GAPS] += sign * chain.gaps;
+        }
+        features[CENTRAL] += sign * Long.bitCount(own & Board.CENTRAL &
+                (Board.GOAL1_SQUARES | Board.GOAL2_SQUARES));
+        if (chain.length > 4 && chain.firstGoal != 0 && chain.lastGoal != 0 &&
+                chain.firstGoal != chain.lastGoal) {
+            features[SPANS] += sign;
+        }
+        if (Threats.mayWin(b, color, moves)) {
+            features[THREATS] += sign;
+        }
+    }
+}
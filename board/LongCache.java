@@ -0,0 +1,150 @@
+package board;
+
+import java.util.Arrays;
+
+/**
+ * A bounded map from long keys to long values, stored in flat primitive
+ * arrays so that lookups and stores never allocate. Entries are grouped in
+ * sets of two; a key can only live in the set its low bits select. When a set
+ * is full, a CLOCK policy picks the victim: every hit marks its entry as
+ * referenced, and a store evicts the first entry of the set that is not
+ * referenced, clearing the mark of each referenced entry it passes over.
+ *
+ * Each slot stores key ^ value next to value, so a slot written by one thread
+ * while another reads it is seen as a miss rather than a wrong value. That
+ * makes a cache safe to share between search threads without locking; the
+ * hit and miss counters are only approximate in that case.
+ */
+public class LongCache {
+
+    public static final long MISS = Long.MIN_VALUE; // Returned by get on a miss
+
+    private static final int WAYS = 2;
+    private static final byte USED = 1;
+    private static final byte REFERENCED = 2;
+    private static final int BYTES_PER_ENTRY = 2 * Long.BYTES + 1;
+
+    private final long[] checks; // key ^ value
+    private final long[] values;
+    private final byte[] flags;
+    private final int setMask;
+    private long hits, misses, evictions;
+
+    /**
+     * Creates an empty cache holding at most the given number of entries,
+     * rounded down to a power of two and at least two.
+     */
+    public LongCache(int entries) {
+        int size = Math.max(WAYS, Integer.highestOneBit(entries));
+        checks = new long[size];
+        values = new long[size];
+        flags = new byte[size];
+        setMask = size / WAYS - 1;
+    }
+
+    /**
+     * Creates an empty cache using at most the given number of megabytes.
+     */
+    public static LongCache withMegabytes(int megabytes) {
+        return new LongCache((int) Math.min(Integer.MAX_VALUE,
+                (megabytes * (1L << 20)) / BYTES_PER_ENTRY));
+    }
+
+    /**
+     * Returns the value stored for key, or MISS if there is none.
+     */
+    public long get(long key) {
+        int slot = firstSlot(key);
+        for (int i = slot; i < slot + WAYS; i++) {
+            long value = values[i];
+            if ((flags[i] & USED) != 0 && (checks[i] ^ value) == key) {
+                flags[i] |= REFERENCED;
+                hits++;
+                return value;
+            }
+        }
+        misses++;
+        return MISS;
+    }
+
+    /**
+     * Stores value for key, replacing the key's old value or evicting another
+     * entry of its set if needed. value must not be MISS.
+     */
+    public void put(long key, long value) {
+        int slot = firstSlot(key);
+        int victim = -1;
+        for (int i = slot; i < slot + WAYS; i++) {
+            if ((flags[i] & USED) == 0 || (checks[i] ^ values[i]) == key) {
+                victim = i;
+                break;
+            }
+        }
+        if (victim < 0) {
+            for (int i = slot; i < slot + WAYS && victim < 0; i++) {
+                if ((flags[i] & REFERENCED) == 0) {
+                    victim = i;
+                }
+                else {
+                    flags[i] &= ~REFERENCED;
+                }
+            }
+            if (victim < 0) {
+                victim = slot; // Every entry was referenced; the hand wrapped
+            }
+            evictions++;
+        }
+        checks[victim] = key ^ value;
+        values[victim] = value;
+        flags[victim] = USED;
+    }
+
+    /**
+     * Removes every entry and resets the counters.
+     */
+    public void clear() {
+        Arrays.fill(flags, (byte) 0);
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    private int firstSlot(long key) {
+        return ((int) (key ^ (key >>> 32)) & setMask) * WAYS;
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    public long memoryBytes() {
+        return (long) values.length * BYTES_PER_ENTRY;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the fraction of lookups that were hits, or 0 before any lookup.
+     */
+    public double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d entries (%d KB), %.1f%% hits, %d evictions",
+                capacity(), memoryBytes() / 1024, 100 * hitRate(), evictions);
+    }
+
+}
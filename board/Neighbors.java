@@ -33,7 +33,7 @@ public class Neighbors implements Iterable<Position> {
             int xx = x + unit.x;
             int yy = y + unit.y;
             if (Board.isOnBoard(xx, yy)) {
-                neighbors[i] = new Position(xx, yy, i);
+                neighbors[i] = Position.of(Board.square(xx, yy), i, 0);
                 size = size + 1;
             }
         }
@@ -44,16 +44,20 @@ public class Neighbors implements Iterable<Position> {
     }
 
     /**
-     * For each position in the list, increments the Position one unit further.
-     * If the increment causes a Position to reference a position not on the board,
-     * the Position will be removed from the checklist.
+     * For each position in the list, replaces the Position with the one a unit
+     * further in its direction. If that Position is not on the board, the
+     * Position will be removed from the checklist.
      */
     public void advance() {
         radius = radius + 1;
         for (int i = 0; i < neighbors.length; i++) {
             if (neighbors[i] != null) {
-                neighbors[i].add(UNIT_LIST[i]); // neighbors[i] is modified
-                if (!Board.isOnBoard(neighbors[i].x, neighbors[i].y)) {
+                int x = neighbors[i].x + UNIT_LIST[i].x;
+                int y = neighbors[i].y + UNIT_LIST[i].y;
+                if (Board.isOnBoard(x, y)) {
+                    neighbors[i] = Position.of(Board.square(x, y), i, 0);
+                }
+                else {
                     remove(i);
                 }
             }
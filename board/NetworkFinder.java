@@ -1,120 +1,248 @@
 package board;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Stack;
 
 public class NetworkFinder {
 
+    public static final int DEFAULT_CACHE_ENTRIES = 1 << 16;
+
+    // Results of getChain, keyed by the tiles on the board and the color
+    private static LongCache cache = new LongCache(DEFAULT_CACHE_ENTRIES);
+
     public static void main(String[] args) {
     }
 
+    /**
+     * Replaces the getChain result cache by an empty one using at most the
+     * given number of megabytes. 0 turns caching off.
+     */
+    public static void setCacheMegabytes(int megabytes) {
+        cache = megabytes > 0 ? LongCache.withMegabytes(megabytes) : null;
+    }
+
+    /**
+     * Returns the getChain result cache, for reporting its hit rate and
+     * memory use, or null if caching is off.
+     */
+    public static LongCache getCache() {
+        return cache;
+    }
+
     /**
      * Returns a list of Positions connected to the tile at Position p on Board
      * b. Helper method for our DFS of longest tile chains or networks.
      * 1. Must change directions when moving to next tile
      * 2. The path from position p to the other tile must not be blocked by the
-     * opponent.
+     * opponent. Only the first tile in each direction can be seen, so a tile
+     * also hides the tiles behind it.
      * 3. If position p is in a goal, tiles in the same goal cannot be connected
      * to it.
      */
     public static List<Position> getConnected(Board b, Position p) {
         List<Position> connected = new ArrayList<>(8);
-        int color = b.tileAt(p);
-        int other = Tile.getOtherColor(color);
-        Neighbors neighbors = new Neighbors(p);
-        while (!neighbors.isEmpty()) {
-            for (Position n : neighbors) {
-                if (n == null || b.isEmpty(n) || Position.isSameDirection(p, n)) {
-                    // Invalid neighbor position, no tile present, or have not
-                    // turned a corner since last tile visited
-                    continue;
-                }
-                if (b.tileAt(n) == other) {
-                    // This direction is blocked!
-                    neighbors.remove(n.direction);
-                    continue;
-                }
-                if (b.tileAt(n) == color) {
-                    if (Position.isSameGoal(p, n)) {
-                        continue;
-                    }
-                    connected.add(new Position(n, neighbors.getRadius()));
-                }
+        int sq = p.square;
+        long mask = b.links(sq);
+        for (int dir = 0; dir < 8; dir++) {
+            long hit = mask & Rays.RAY[sq][dir];
+            if (hit == 0 || Rays.isSameLine(p.direction, dir)) {
+                // No link this way, or have not turned a corner since last
+                // tile visited
+                continue;
             }
-            neighbors.advance();
+            int n = Long.numberOfTrailingZeros(hit);
+            connected.add(Position.of(n, dir, Rays.space(sq, n)));
         }
         return connected;
     }
 
     /**
-     * Returns a SearchNode, consisting of the chain of positions, that results
-     * in a network
+     * Returns a SearchNode describing a network of the given color if there is
+     * one, or otherwise the longest chain of connected tiles found. Every
+     * chain is explored depth first from every tile, in the order a stack of
+     * partial chains would visit them, so ties between equally long chains
+     * are always broken the same way.
      */
     public static SearchNode getChain(Board b, int color) {
-        List<Position> tiles = b.getTiles(color);
-        SearchNode result = new SearchNode(null);
-        int maxLength = 0;
-        for (Position p : tiles) {
-            LinkedList<Position> chain = new LinkedList<>();
-            chain.add(p);
-            SearchNode start = new SearchNode(p, chain, false); // Starting node
-            Stack<SearchNode> frontier = new Stack<>();
-            frontier.add(start);
-            while (!frontier.isEmpty()) {
-                SearchNode current = frontier.pop();
-                Position currentPos = current.position;
-                List<Position> connected = getConnected(b, currentPos);
-                LinkedList<Position> link = new LinkedList<>(current.chain);
-                for (Position next : connected) {
-                    if (!link.contains(next)) {
-                        // Do not re-explore already added nodes
-                        link = new LinkedList<>(current.chain);
-                        link.add(next);
-                        SearchNode sn = new SearchNode(next, link, false);
-                        if (!next.isGoal()) {
-                            // Do not further explore if next is in a goal zone
-                            frontier.push(sn);
-                        }
-                        if (isNetwork(link)) {
-                            sn.isNetwork = true;
-                            return sn;
-                        }
-                        if (link.size() > maxLength) {
-                            maxLength = link.size();
-                            result = sn;
-                        }
-                    }
-                }
+        return SearchNode.unpack(packedChain(b, color), new SearchNode());
+    }
+
+    /**
+     * Returns getChain's result packed as by SearchNode.pack, searching with
+     * the board's own ChainSearch on a cache miss, so nothing is allocated.
+     */
+    static long packedChain(Board b, int color) {
+        LongCache results = cache;
+        long key = b.tilesKey() ^ Zobrist.COLOR[color];
+        if (results != null) {
+            long packed = results.get(key);
+            if (packed != LongCache.MISS) {
+                return packed;
             }
         }
-        return result;
+        long packed = b.chainSearch().run(color);
+        if (results != null) {
+            results.put(key, packed);
+        }
+        return packed;
     }
 
-    private static boolean isNetwork(LinkedList<Position> chain) {
-        if (chain.size() < 6) {
-            return false;
-        }
-        Position p1 = chain.getFirst();
-        Position p2 = chain.getLast();
-        return Position.isOppositeGoal(p1, p2);
+    /**
+     * Returns true if color has a network on the board.
+     */
+    static boolean hasNetwork(Board b, int color) {
+        return (packedChain(b, color) & 1) != 0;
     }
 
+    /**
+     * Summary of a chain of tiles: its length, the goals of its first and last
+     * tiles, the total space between consecutive tiles and whether it is a
+     * network. A length of 0 means no two tiles are connected.
+     */
     static final class SearchNode {
 
-        Position position;
-        LinkedList<Position> chain;
         boolean isNetwork;
+        int length;
+        int firstGoal;
+        int lastGoal;
+        int gaps;
+
+        /**
+         * Packs the summary into a non-negative long: isNetwork in bit 0,
+         * length in bits 1-4, the goals in bits 5-6 and 7-8, gaps above.
+         */
+        long pack() {
+            return (isNetwork ? 1 : 0) | (length << 1) | (firstGoal << 5) |
+                    (lastGoal << 7) | ((long) gaps << 9);
+        }
+
+        /**
+         * Fills node with the summary packed by pack and returns it.
+         */
+        static SearchNode unpack(long packed, SearchNode node) {
+            node.isNetwork = (packed & 1) != 0;
+            node.length = (int) (packed >>> 1) & 0xF;
+            node.firstGoal = (int) (packed >>> 5) & 0x3;
+            node.lastGoal = (int) (packed >>> 7) & 0x3;
+            node.gaps = (int) (packed >>> 9);
+            return node;
+        }
+
+    }
+
+    /**
+     * The depth first search behind getChain. The current chain is kept in
+     * fixed size arrays indexed by depth, along with the linked tiles still
+     * to explore from each depth, and a mask of the squares on the chain.
+     * Each Board keeps one, which runs every search of that board, so
+     * nothing is allocated once it exists.
+     */
+    static final class ChainSearch {
+
+        private final Board board;
+        private int color;
+
+        private final int[] path = new int[Board.MAX_TILES];
+        private final int[] directions = new int[Board.MAX_TILES];
+        private final int[] gaps = new int[Board.MAX_TILES]; // Space up to each depth
+        private final int[] remaining = new int[Board.MAX_TILES];
+        private final int[] children = new int[Board.MAX_TILES * 8];
+        private final int[] childDirections = new int[Board.MAX_TILES * 8];
+        private final int[] childSpaces = new int[Board.MAX_TILES * 8];
+        private long visited;
+        private final SearchNode best = new SearchNode();
+
+        ChainSearch(Board b) {
+            this.board = b;
+        }
+
+        /**
+         * Searches the chains of the given color and returns the best one,
+         * packed.
+         */
+        long run(int color) {
+            this.color = color;
+            best.isNetwork = false;
+            best.length = 0;
+            best.firstGoal = 0;
+            best.lastGoal = 0;
+            best.gaps = 0;
+            search();
+            return best.pack();
+        }
 
-        SearchNode(Position position, LinkedList<Position> chain, boolean isNetwork) {
-            this.position = position;
-            this.chain = chain;
-            this.isNetwork = isNetwork;
+        private void search() {
+            for (int i = 0; i < board.pieceCount(color); i++) {
+                path[0] = board.piece(color, i);
+                directions[0] = Direction.NONE;
+                gaps[0] = 0;
+                visited = 1L << path[0];
+                if (expand(0)) {
+                    return;
+                }
+                int depth = 0;
+                while (depth >= 0) {
+                    if (remaining[depth] == 0) {
+                        visited &= ~(1L << path[depth]);
+                        depth--;
+                        continue;
+                    }
+                    int child = depth * 8 + --remaining[depth];
+                    depth++;
+                    path[depth] = children[child];
+                    directions[depth] = childDirections[child];
+                    gaps[depth] = gaps[depth - 1] + childSpaces[child];
+                    visited |= 1L << path[depth];
+                    if (expand(depth)) {
+                        return;
+                    }
+                }
+            }
         }
 
-        SearchNode(Position position) {
-            this(position, new LinkedList<>(), false);
+        /**
+         * Extends the chain ending at path[depth] by each tile linked to it,
+         * recording networks and new longest chains, and queues the links
+         * that can be explored further. Returns true if a network was found.
+         */
+        private boolean expand(int depth) {
+            int sq = path[depth];
+            long linked = board.links(sq) & ~visited;
+            int firstGoal = Board.goalOf(path[0]);
+            int count = 0;
+            for (int dir = 0; dir < 8; dir++) {
+                long hit = linked & Rays.RAY[sq][dir];
+                if (hit == 0 || Rays.isSameLine(directions[depth], dir)) {
+                    // No link this way, already on the chain, or have not
+                    // turned a corner since last tile visited
+                    continue;
+                }
+                int n = Long.numberOfTrailingZeros(hit);
+                int nextGoal = Board.goalOf(n);
+                int space = Rays.space(sq, n);
+                int length = depth + 2;
+                boolean network = length >= 6 && firstGoal != 0 &&
+                        nextGoal != 0 && firstGoal != nextGoal;
+                if (network || length > best.length) {
+                    best.isNetwork = network;
+                    best.length = length;
+                    best.firstGoal = firstGoal;
+                    best.lastGoal = nextGoal;
+                    best.gaps = gaps[depth] + space;
+                    if (network) {
+                        return true;
+                    }
+                }
+                if (nextGoal == 0) {
+                    // Do not further explore if next is in a goal zone
+                    children[depth * 8 + count] = n;
+                    childDirections[depth * 8 + count] = dir;
+                    childSpaces[depth * 8 + count] = space;
+                    count++;
+                }
+            }
+            remaining[depth] = count;
+            return false;
         }
 
     }
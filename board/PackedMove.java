@@ -0,0 +1,86 @@
+package board;
+
+import player.Move;
+
+/**
+ * Static helpers for moves packed into a single int, so that search code can
+ * generate and store moves without allocating Move objects. Bits 0-5 hold the
+ * destination square, bits 6-11 the source square of a STEP move and bits
+ * 12-13 the move kind, using the constants of Move. Squares are numbered as
+ * in Board, x * SIZE + y.
+ */
+public final class PackedMove {
+
+    public static final int NONE = 0; // Packs a QUIT move; never generated
+
+    private static final int KIND_SHIFT = 12;
+    private static final int FROM_SHIFT = 6;
+    private static final int SQUARE_MASK = 63;
+
+    private PackedMove() {}
+
+    /**
+     * Returns the packed ADD move placing a tile on square to.
+     */
+    public static int add(int to) {
+        return (Move.ADD << KIND_SHIFT) | to;
+    }
+
+    /**
+     * Returns the packed STEP move moving the tile on square from to square to.
+     */
+    public static int step(int from, int to) {
+        return (Move.STEP << KIND_SHIFT) | (from << FROM_SHIFT) | to;
+    }
+
+    /**
+     * Returns the kind of the packed move: Move.ADD, Move.STEP or Move.QUIT.
+     */
+    public static int kind(int move) {
+        return move >>> KIND_SHIFT;
+    }
+
+    /**
+     * Returns the square a STEP move takes its tile from.
+     */
+    public static int from(int move) {
+        return (move >>> FROM_SHIFT) & SQUARE_MASK;
+    }
+
+    /**
+     * Returns the square the packed move places a tile on.
+     */
+    public static int to(int move) {
+        return move & SQUARE_MASK;
+    }
+
+    /**
+     * Packs the Move m.
+     */
+    public static int pack(Move m) {
+        if (m.moveKind == Move.ADD) {
+            return add(Board.square(m.x1, m.y1));
+        }
+        if (m.moveKind == Move.STEP) {
+            return step(Board.square(m.x2, m.y2), Board.square(m.x1, m.y1));
+        }
+        return NONE;
+    }
+
+    /**
+     * Unpacks the move into a new Move object.
+     */
+    public static Move toMove(int move) {
+        int to = to(move);
+        if (kind(move) == Move.ADD) {
+            return new Move(to / Board.SIZE, to % Board.SIZE);
+        }
+        if (kind(move) == Move.STEP) {
+            int from = from(move);
+            return new Move(to / Board.SIZE, to % Board.SIZE,
+                    from / Board.SIZE, from % Board.SIZE);
+        }
+        return new Move();
+    }
+
+}
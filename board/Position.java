@@ -1,51 +1,73 @@
 package board;
+
+/**
+ * An immutable square of the board, optionally tagged with the direction and
+ * space of the link that reached it in a chain. Positions on the board are
+ * shared: of() returns one canonical instance for every combination of square,
+ * direction and space, so no Position is allocated while searching.
+ */
 public final class Position {
 
-    int x; // x coordinate of this Position
-    int y; // y coordinate of this Position
+    private static final int MAX_SPACE = Board.SIZE - 2;
+    // CACHE[square][direction][space]; direction NONE is index 8
+    private static final Position[][][] CACHE =
+            new Position[Board.SIZE * Board.SIZE][Direction.NONE + 1][MAX_SPACE + 1];
+
+    static {
+        for (int sq = 0; sq < CACHE.length; sq++) {
+            for (int d = 0; d <= Direction.NONE; d++) {
+                for (int space = 0; space <= MAX_SPACE; space++) {
+                    CACHE[sq][d][space] = new Position(sq / Board.SIZE,
+                            sq % Board.SIZE, d, space);
+                }
+            }
+        }
+    }
+
+    final int x; // x coordinate of this Position
+    final int y; // y coordinate of this Position
+    final int square; // Index of this Position in the bitboards
     // Used in chains of Positions; direction to reach this Position from
     // the previous position.
-    int direction;
-    int goal; // integer representation of whether this tile is in a goal or not
-    int space; // Amount of space between this Position and previous position.
+    final int direction;
+    final int goal; // integer representation of whether this tile is in a goal or not
+    final int space; // Amount of space between this Position and previous position.
 
-    public Position(int x, int y, int direction, int space) {
+    // Only for off-board offsets such as Neighbors.UNIT_LIST; squares on the
+    // board come from of().
+    Position(int x, int y, int direction, int space) {
         this.x = x;
         this.y = y;
+        this.square = x * Board.SIZE + y;
         this.direction = direction;
         this.space = space;
         this.goal = Board.toGoal(x, y);
     }
 
-    public Position(int x, int y, int direction) {
+    Position(int x, int y, int direction) {
         this(x, y, direction, 0);
     }
 
-    public Position(int x, int y) {
-        this(x, y, Direction.NONE, 0);
-    }
-
-    public Position(Position p, int space) {
-        this.x = p.x;
-        this.y = p.y;
-        this.direction = p.direction;
-        this.goal = Board.toGoal(p.x, p.y);
-        this.space = space;
+    /**
+     * Returns the shared Position of square sq reached in the given direction
+     * across space empty squares.
+     */
+    public static Position of(int sq, int direction, int space) {
+        return CACHE[sq][direction][space];
     }
 
-    // Copy constructor
-    public Position(Position p) {
-        this(p, p.space);
+    /**
+     * Returns the shared Position of square sq with no direction.
+     */
+    public static Position of(int sq) {
+        return CACHE[sq][Direction.NONE][0];
     }
 
     /**
-     * Adds position p to this position. (Destructive)
-     **/
-    public void add(Position p) {
-        if (p != null) {
-            x = x + p.x;
-            y = y + p.y;
-        }
+     * Returns the shared Position of (x,y) with no direction.
+     */
+    public static Position of(int x, int y) {
+        return of(x * Board.SIZE + y);
     }
 
     /**
@@ -129,15 +151,21 @@ public final class Position {
         return "[(" + x + "," + y + ") " + d + ", " + space + "]";
     }
 
+    /**
+     * Positions are equal if they refer to the same square, whatever link
+     * reached them.
+     */
     @Override
     public boolean equals(Object o) {
-        Position other = (Position) o;
-        return x == other.x && y == other.y;
+        if (this == o) {
+            return true;
+        }
+        return o instanceof Position && square == ((Position) o).square;
     }
 
     @Override
     public int hashCode() {
-        return 10 * x + y;
+        return square;
     }
 
 }
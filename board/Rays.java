@@ -0,0 +1,107 @@
+package board;
+
+/**
+ * Precomputed line of sight tables. For every square and each of the eight
+ * directions, RAY holds the mask of squares that lie beyond the square in that
+ * direction, nearest first. ADJACENT holds the (up to eight) squares touching
+ * each square. The tables are built once when the class is loaded, so looking
+ * up what a square can see never allocates.
+ */
+final class Rays {
+
+    static final int SQUARES = Board.SIZE * Board.SIZE;
+    static final long[][] RAY = new long[SQUARES][8];
+    static final long[] ADJACENT = new long[SQUARES];
+    static final long[] NEAR = new long[SQUARES]; // Squares at most 2 away
+
+    private static final long NOT_TOP = ~0x0101010101010101L; // y != 0
+    private static final long NOT_BOTTOM = ~0x8080808080808080L; // y != SIZE - 1
+
+    static {
+        for (int sq = 0; sq < SQUARES; sq++) {
+            for (int dir = 0; dir < 8; dir++) {
+                Position unit = Neighbors.UNIT_LIST[dir];
+                int x = sq / Board.SIZE + unit.x;
+                int y = sq % Board.SIZE + unit.y;
+                if (Board.isOnBoard(x, y)) {
+                    ADJACENT[sq] |= Board.bit(x, y);
+                }
+                while (Board.isOnBoard(x, y)) {
+                    RAY[sq][dir] |= Board.bit(x, y);
+                    x = x + unit.x;
+                    y = y + unit.y;
+                }
+            }
+            NEAR[sq] = adjacent(ADJACENT[sq] | (1L << sq));
+        }
+    }
+
+    private Rays() {}
+
+    /**
+     * Returns the first occupied square seen from sq looking in direction dir,
+     * or -1 if every square in that direction is empty. Directions NORTHWEST
+     * through NORTH decrease the square index, the others increase it, so the
+     * nearest blocker is the highest or lowest bit of the ray respectively.
+     */
+    static int firstBlocker(int sq, int dir, long occupied) {
+        long blockers = RAY[sq][dir] & occupied;
+        if (blockers == 0) {
+            return -1;
+        }
+        if (dir <= Direction.NORTH) {
+            return 63 - Long.numberOfLeadingZeros(blockers);
+        }
+        return Long.numberOfTrailingZeros(blockers);
+    }
+
+    /**
+     * Returns the mask of squares touching at least one square of mask. A
+     * square of mask is included only if it touches another one.
+     */
+    static long adjacent(long mask) {
+        long north = (mask >>> 1) & NOT_BOTTOM;
+        long south = (mask << 1) & NOT_TOP;
+        long column = mask | north | south;
+        return north | south | (column << Board.SIZE) | (column >>> Board.SIZE);
+    }
+
+    /**
+     * Returns the mask of squares touching at least two squares of mask. The
+     * hits from each of the three columns around a square are counted up to
+     * two, then combined.
+     */
+    static long crowded(long mask) {
+        long north = (mask >>> 1) & NOT_BOTTOM;
+        long south = (mask << 1) & NOT_TOP;
+        long middleOnce = north | south;
+        long middleTwice = north & south;
+        long sideOnce = mask | north | south;
+        long sideTwice = (mask & north) | (mask & south) | middleTwice;
+        long westOnce = sideOnce >>> Board.SIZE;
+        long eastOnce = sideOnce << Board.SIZE;
+        return middleTwice | (sideTwice >>> Board.SIZE) | (sideTwice << Board.SIZE) |
+                (middleOnce & westOnce) | (middleOnce & eastOnce) |
+                (westOnce & eastOnce);
+    }
+
+    /**
+     * Returns the number of empty squares between two squares that lie on a
+     * common line.
+     */
+    static int space(int from, int to) {
+        int dx = Math.abs(from / Board.SIZE - to / Board.SIZE);
+        int dy = Math.abs(from % Board.SIZE - to % Board.SIZE);
+        return Math.max(dx, dy) - 1;
+    }
+
+    /**
+     * Returns true if directions d1 and d2 lie on the same line, meaning a
+     * chain entering a square in direction d1 would not turn a corner by
+     * leaving it in direction d2. Opposite directions sum to 7.
+     */
+    static boolean isSameLine(int d1, int d2) {
+        return d1 != Direction.NONE && (d1 == d2 || d1 + d2 == 7);
+    }
+
+}
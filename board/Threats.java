@@ -0,0 +1,152 @@
+package board;
+
+import player.Move;
+
+/**
+ * Finds the moves that would complete a network for a player on their next
+ * turn. A new network must use a link the move creates: one from the tile it
+ * places, or, for a STEP move, one between two tiles the lifted tile stood
+ * between. So only placements that would see enough friendly tiles, with tiles
+ * left in both goals, are checked by actually making the move and looking for
+ * a network.
+ */
+public final class Threats {
+
+    private static final int NETWORK_LENGTH = 6;
+    // GOAL1 and GOAL2 squares of each color, indexed by color
+    private static final long[] GOAL1 = new long[2];
+    private static final long[] GOAL2 = new long[2];
+
+    static {
+        GOAL1[Tile.BLACK] = Board.TOP_BOTTOM & 0x0101010101010101L;
+        GOAL2[Tile.BLACK] = Board.TOP_BOTTOM & ~GOAL1[Tile.BLACK];
+        GOAL1[Tile.WHITE] = Board.LEFT_RIGHT & 0xFFL;
+        GOAL2[Tile.WHITE] = Board.LEFT_RIGHT & ~GOAL1[Tile.WHITE];
+    }
+
+    private Threats() {}
+
+    /**
+     * Writes the packed moves that would give color a network, and not give
+     * one to the opponent, into moves and returns how many there are. moves
+     * must have room for Board.MAX_MOVES entries and is also used as scratch
+     * space. The board is left unchanged.
+     */
+    public static int winningMoves(Board b, int color, int[] moves) {
+        return find(b, color, moves, Board.MAX_MOVES);
+    }
+
+    /**
+     * Returns a packed move that would give color a network, or
+     * PackedMove.NONE if there is none. moves is used as scratch space.
+     */
+    public static int winningMove(Board b, int color, int[] moves) {
+        return find(b, color, moves, 1) > 0 ? moves[0] : PackedMove.NONE;
+    }
+
+    /**
+     * Returns true if color has a move that might complete a network, judging
+     * only by the links each move would create, without making any of them.
+     * False means color has no winning move; true may be wrong. moves is used
+     * as scratch space.
+     */
+    public static boolean mayWin(Board b, int color, int[] moves) {
+        boolean adding = b.getTileCount(color) < Board.MAX_TILES;
+        if (b.pieceCount(color) + (adding ? 1 : 0) < NETWORK_LENGTH) {
+            return false;
+        }
+        int count = b.generateMoves(color, moves);
+        for (int i = 0; i < count; i++) {
+            if (canComplete(b, color, moves[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes up to limit winning moves at the front of moves and returns how
+     * many were written.
+     */
+    private static int find(Board b, int color, int[] moves, int limit) {
+        boolean adding = b.getTileCount(color) < Board.MAX_TILES;
+        int tiles = b.pieceCount(color) + (adding ? 1 : 0);
+        if (tiles < NETWORK_LENGTH) {
+            return 0;
+        }
+        int count = b.generateMoves(color, moves);
+        int found = 0;
+        for (int i = 0; i < count && found < limit; i++) {
+            int move = moves[i];
+            if (canComplete(b, color, move) && completes(b, color, move)) {
+                moves[found++] = move;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns true if the move might complete a network for color, judging
+     * only by the links it would create. False means it cannot.
+     */
+    private static boolean canComplete(Board b, int color, int move) {
+        int to = PackedMove.to(move);
+        long lifted = 0;
+        if (PackedMove.kind(move) == Move.STEP) {
+            lifted = 1L << PackedMove.from(move);
+        }
+        long own = (b.tiles(color) & ~lifted) | (1L << to);
+        if ((own & GOAL1[color]) == 0 || (own & GOAL2[color]) == 0) {
+            return false;
+        }
+        long occupied = b.occupied() & ~lifted;
+        if (lifted != 0 && linksAcross(b, color, PackedMove.from(move), occupied)) {
+            return true;
+        }
+        int goal = Board.goalOf(to);
+        int seen = 0;
+        for (int dir = 0; dir < 8; dir++) {
+            int n = Rays.firstBlocker(to, dir, occupied);
+            if (n >= 0 && (own & (1L << n)) != 0 &&
+                    (goal == 0 || Board.goalOf(n) != goal)) {
+                seen++;
+            }
+        }
+        // A tile inside a network links to two others; one at its end, to one
+        return seen >= (goal == 0 ? 2 : 1);
+    }
+
+    /**
+     * Returns true if two tiles of color, on either side of the empty square
+     * sq, would link across it.
+     */
+    private static boolean linksAcross(Board b, int color, int sq, long occupied) {
+        long own = b.tiles(color);
+        for (int dir = 0; dir < 4; dir++) {
+            int before = Rays.firstBlocker(sq, dir, occupied);
+            int after = Rays.firstBlocker(sq, 7 - dir, occupied);
+            if (before >= 0 && after >= 0 && (own & (1L << before)) != 0 &&
+                    (own & (1L << after)) != 0) {
+                int goal = Board.goalOf(before);
+                if (goal == 0 || goal != Board.goalOf(after)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes the move and returns true if color then has a network and its
+     * opponent does not, which would make color the loser.
+     */
+    private static boolean completes(Board b, int color, int move) {
+        b.makeMove(color, move);
+        boolean wins = NetworkFinder.hasNetwork(b, color) &&
+                !(PackedMove.kind(move) == Move.STEP &&
+                        NetworkFinder.hasNetwork(b, Tile.getOtherColor(color)));
+        b.unmakeMove(color, move);
+        return wins;
+    }
+
+}
@@ -0,0 +1,35 @@
+package board;
+
+import java.util.Random;
+
+/**
+ * Random 64 bit numbers used to key board positions. The key of a Board is the
+ * XOR of TILE[color][square] over every tile on the board, XORed with
+ * BLACK_TO_MOVE when it is black's turn, so it can be updated in constant time
+ * as tiles are added and removed. The numbers come from a fixed seed so keys
+ * stay the same between runs and can be saved to disk.
+ */
+final class Zobrist {
+
+    private static final long SEED = 0x4E6574776F726BL;
+
+    static final long[][] TILE = new long[2][Rays.SQUARES];
+    static final long BLACK_TO_MOVE;
+    // Mixed into a position's key to key results that belong to one color
+    static final long[] COLOR = new long[2];
+
+    static {
+        Random random = new Random(SEED);
+        for (int color = 0; color < TILE.length; color++) {
+            for (int sq = 0; sq < Rays.SQUARES; sq++) {
+                TILE[color][sq] = random.nextLong();
+            }
+        }
+        BLACK_TO_MOVE = random.nextLong();
+        COLOR[Tile.BLACK] = random.nextLong();
+        COLOR[Tile.WHITE] = random.nextLong();
+    }
+
+    private Zobrist() {}
+
+}
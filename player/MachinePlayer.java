@@ -3,8 +3,16 @@
 package player;
 
 import board.Board;
+import board.Evaluator;
+import board.NetworkFinder;
+import board.PackedMove;
+import board.Threats;
 import board.Tile;
 
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Paths;
 import java.util.List;
 
 
@@ -14,24 +22,188 @@ import java.util.List;
  */
 public class MachinePlayer extends Player {
 
-    private int searchDepth;
+    public static final long DEFAULT_TIME_BUDGET = 4000; // ms, under the 5s limit
+    public static final int MAX_SEARCH_DEPTH = 32; // Deepest timed search
+    public static final int DEFAULT_TABLE_MEGABYTES = 16;
+    // Built by OpeningBook.main; used by MachinePlayer(color) if present next
+    // to MachinePlayer.class
+    public static final String DEFAULT_OPENING_BOOK = "book.bin";
+
+    private int maxDepth; // Depth of a fixed search, or deepest timed search
+    private long timeBudget; // ms per move, or 0 to search exactly maxDepth
     private int color;
     private Board board;
-    private static int moves;
+    private int movesPlayed; // Moves made on board by either player
+    private int[] rootMoves; // Moves to search at the root
+    private int[] threatBuffer; // Scratch space for Threats
+    private Evaluator evaluator;
+    // Results of earlier searches, kept across iterations and moves, or null
+    private TranspositionTable table;
+    // workers[0] searches in the thread calling chooseMove and gives the
+    // result; the others search the same position in their own threads, only
+    // to fill the shared table with results workers[0] can use.
+    private SearchWorker[] workers;
+    // Pondering: while the opponent thinks, workers[0] searches the position
+    // after their predicted reply in ponderThread
+    private boolean pondering;
+    private Thread ponderThread;
+    private long ponderKey; // Key of the position being pondered
+    private MoveScore ponderResult; // Deepest result of the pondering search
+    private int ponderDepth;
+    private boolean ponderHit; // The opponent played the predicted reply
+    private OpeningBook book; // Moves to play without searching, or null
+    private boolean defaultBook; // Load DEFAULT_OPENING_BOOK on first use
+    private boolean verbose = true; // Print statistics on each move
 
     // Creates a machine player with the given color.  Color is either 0 (black)
-    // or 1 (white).  (White has the first move.)
+    // or 1 (white).  (White has the first move.)  Searches deeper and deeper
+    // until DEFAULT_TIME_BUDGET runs out, pruning step moves selectively and
+    // only starting a depth it expects to finish in time.  Plays from
+    // DEFAULT_OPENING_BOOK when it is found next to this class.
     public MachinePlayer(int color) {
-        this(color, 3);
+        this(color, MAX_SEARCH_DEPTH);
+        this.timeBudget = DEFAULT_TIME_BUDGET;
+        setLateMoveReductions(true);
+        setFutilityPruning(true);
+        setAdaptiveDepth(true);
+        defaultBook = true;
     }
 
     // Creates a machine player with the given color and search depth.  Color is
     // either 0 (black) or 1 (white).  (White has the first move.)
     public MachinePlayer(int color, int searchDepth) {
+        this(color, searchDepth, DEFAULT_TABLE_MEGABYTES);
+    }
+
+    // Creates a machine player with the given color and search depth, whose
+    // transposition table uses the given number of megabytes (0 for none).
+    public MachinePlayer(int color, int searchDepth, int tableMegabytes) {
+        this(color, searchDepth, tableMegabytes, 1);
+    }
+
+    // Creates a machine player with the given color, search depth and
+    // transposition table size, that searches with the given number of
+    // threads.  Extra threads only help through the table, so they need one.
+    public MachinePlayer(int color, int searchDepth, int tableMegabytes,
+                         int threads) {
         this.myName = "Johnny";
         this.color = color;
-        this.searchDepth = searchDepth;
+        this.maxDepth = searchDepth;
+        this.timeBudget = 0;
         this.board = new Board();
+        this.rootMoves = new int[Board.MAX_MOVES];
+        this.threatBuffer = new int[Board.MAX_MOVES];
+        this.evaluator = Evaluator.WEIGHTED;
+        if (tableMegabytes > 0) {
+            this.table = new TranspositionTable(tableMegabytes);
+        }
+        else threads = 1;
+        this.workers = new SearchWorker[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new SearchWorker(color, searchDepth, table,
+                    i == 0 ? evaluator : evaluator.copy());
+        }
+    }
+
+    // Sets the time in ms that chooseMove may spend searching deeper and deeper,
+    // up to the depth given at construction.  0 searches to exactly that depth.
+    public void setTimeBudget(long ms) {
+        this.timeBudget = ms;
+    }
+
+    // Turns principal variation search, with aspiration windows around the
+    // last iteration's score, on or off.  Either way the same move is chosen,
+    // but PVS usually searches fewer moves.  On by default.
+    public void setPrincipalVariationSearch(boolean on) {
+        for (SearchWorker w : workers) {
+            w.setPrincipalVariationSearch(on);
+        }
+    }
+
+    // Turns late move reductions on or off: in the step phase, quiet moves
+    // ordered late are first searched a ply shallower, and only searched in
+    // full if that finds them better than the best move so far.  On by
+    // default only for a player without a fixed search depth.
+    public void setLateMoveReductions(boolean on) {
+        for (SearchWorker w : workers) {
+            w.setLateMoveReductions(on);
+        }
+    }
+
+    // Turns futility pruning on or off: in the step phase, one ply above the
+    // horizon, quiet moves are skipped when the static score is too far below
+    // the best score so far for one move to make up.  On by default only for
+    // a player without a fixed search depth.
+    public void setFutilityPruning(boolean on) {
+        for (SearchWorker w : workers) {
+            w.setFutilityPruning(on);
+        }
+    }
+
+    // Turns adaptive depth on or off for searches with a time budget.  When
+    // on, a deeper iteration is only started if its size, predicted from the
+    // growth of the last iterations or the number of root moves and the
+    // nodes searched per second, fits in the rest of the budget; in the step
+    // phase, with many more moves, this settles on shallower depths than in
+    // the add phase.  When off, one is started whenever less than half the
+    // budget has passed.  On by default only for a player without a fixed
+    // search depth; a fixed depth search is unaffected either way.
+    public void setAdaptiveDepth(boolean on) {
+        for (SearchWorker w : workers) {
+            w.setAdaptiveDepth(on);
+        }
+    }
+
+    // Turns the statistics chooseMove prints about each move on or off.  On
+    // by default.
+    public void setVerbose(boolean on) {
+        this.verbose = on;
+    }
+
+    // Sets the evaluator used to score boards at each node of the search.
+    public void setEvaluator(Evaluator evaluator) {
+        // A ponder search must not go on with a mix of the two evaluators,
+        // and its result no longer answers the position
+        stopPondering();
+        ponderHit = false;
+        this.evaluator = evaluator;
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].setEvaluator(i == 0 ? evaluator : evaluator.copy());
+        }
+        if (table != null) {
+            // Its scores came from the old evaluator
+            table.clear();
+        }
+    }
+
+    // Makes chooseMove play the moves of the opening book in the given file,
+    // written by OpeningBook.main, in the positions it knows instead of
+    // searching.  null turns the book off.
+    public void setOpeningBook(String path) throws IOException {
+        this.defaultBook = false;
+        this.book = path == null ? null : OpeningBook.load(path);
+    }
+
+    // Loads DEFAULT_OPENING_BOOK from the directory MachinePlayer.class was
+    // loaded from, whatever the working directory.  Called by the first
+    // chooseMove rather than the constructor, so setVerbose and
+    // setOpeningBook can be called first.  Without a book there, or inside
+    // a jar, where it cannot be mapped, the player silently has none; a book
+    // that cannot be read is reported if verbose.
+    private void loadDefaultBook() {
+        defaultBook = false;
+        URL url = MachinePlayer.class.getResource(DEFAULT_OPENING_BOOK);
+        if (url == null || !"file".equals(url.getProtocol())) {
+            return;
+        }
+        try {
+            setOpeningBook(Paths.get(url.toURI()).toString());
+        }
+        catch (IOException | URISyntaxException e) {
+            if (verbose) {
+                System.out.println(e);
+            }
+        }
     }
 
     private void pause(int ms) {
@@ -46,53 +218,217 @@ public class MachinePlayer extends Player {
     // Returns a new move by "this" player.  Internally records the move (updates
     // the internal game board) as a move by "this" player.
     public Move chooseMove() {
-        moves = 0;
-        MoveScore ms = minimax(0, Integer.MIN_VALUE, Integer.MAX_VALUE, true);
-        System.out.println("MOVES CONSIDERED: " + moves + " SCORE: " + ms.score);
-        board.executeMove(ms.m);
-        return ms.m;
-    }
-
-    private MoveScore minimax(int depth, int alpha, int beta, boolean self) {
-        int score = board.evaluateWithWeight(color);
-        MoveScore best = new MoveScore(score);
-        if (depth == searchDepth) {
-            return best;
-        }
-        if (score >= Board.MAX || score <= Board.MIN) {
-            if (self) {
-                best.score = best.score - depth;
+        stopPondering();
+        boolean hit = ponderHit;
+        ponderHit = false;
+        int win = Threats.winningMove(board, color, threatBuffer);
+        if (win != PackedMove.NONE) {
+            board.executeMove(win);
+            movesPlayed++;
+            return PackedMove.toMove(win);
+        }
+        if (defaultBook) {
+            loadDefaultBook();
+        }
+        int booked = book == null ? PackedMove.NONE : book.lookup(board.key());
+        if (booked != PackedMove.NONE &&
+                board.isValidMove(PackedMove.toMove(booked))) {
+            if (verbose) {
+                System.out.println("BOOK MOVE: " + PackedMove.toMove(booked));
             }
-            else best.score = best.score + depth;
-            return best;
+            board.executeMove(booked);
+            movesPlayed++;
+            return PackedMove.toMove(booked);
         }
-        if (self) {
-            best.score = alpha;
+        if (hit && timeBudget == 0 && ponderDepth >= maxDepth) {
+            // Pondering already searched this position to the full depth
+            if (verbose) {
+                System.out.println("PONDER HIT: " + ponderResult);
+            }
+            return play(ponderResult);
+        }
+        // A timed search goes on from the depth pondering reached: the table
+        // answers the shallower iterations, so the budget goes to deeper ones
+        int firstDepth = hit ? Math.max(1, ponderDepth) : 1;
+        int rootMoveCount = rootMoves(board, rootMoves);
+        if (table != null && !hit) {
+            // On a ponder hit this search goes on with pondering's results,
+            // which must not become old and be replaced by shallower ones
+            table.newSearch();
+        }
+        for (SearchWorker w : workers) {
+            w.start(board, movesPlayed, rootMoves, rootMoveCount);
+        }
+        long start = System.nanoTime();
+        long budget = timeBudget > 0 ? timeBudget * 1000000 : Long.MAX_VALUE;
+        Thread[] helpers = startHelpers(start, budget);
+        MoveScore ms;
+        if (timeBudget > 0) {
+            ms = workers[0].deepen(firstDepth, start, budget);
+        }
+        else ms = workers[0].search(maxDepth);
+        stopHelpers(helpers);
+        int depth = workers[0].depth();
+        if (ms == null) {
+            // Only on a ponder hit, when the deadline passed before the first
+            // iteration finished: pondering's result is a finished search of
+            // this position to that depth
+            ms = ponderResult;
+            depth = ponderDepth;
         }
-        else best.score = beta;
-        List<Move> legal = board.getValidMoves();
-        best.m = legal.get(0);
+        long moves = 0, cutoffs = 0, firstMoveCutoffs = 0;
+        for (SearchWorker w : workers) {
+            moves += w.nodes;
+            cutoffs += w.cutoffs;
+            firstMoveCutoffs += w.firstMoveCutoffs;
+        }
+        if (verbose) {
+            System.out.println("MOVES CONSIDERED: " + moves + " DEPTH: " +
+                    depth + " SCORE: " + ms.score +
+                    " FIRST MOVE CUTOFFS: " + String.format("%.1f%%",
+                    100.0 * firstMoveCutoffs / Math.max(1, cutoffs)) +
+                    " TABLE: " + table +
+                    " CHAIN CACHE: " + NetworkFinder.getCache() +
+                    " EVAL CACHE: " + Board.getEvalCache() +
+                    (hit ? " PONDER HIT AT DEPTH " + ponderDepth : ""));
+        }
+        return play(ms);
+    }
 
-        for (Move m : legal) {
-            board.executeMove(m);
-            moves++;
-            MoveScore reply = minimax(depth + 1, alpha, beta, !self);
-            board.undoMove(m);
-            if (self && reply.score > best.score) {
-                best.m = m;
-                best.score = reply.score;
-                alpha = reply.score;
+    // Makes the move of ms on the board, starts pondering if it is on, and
+    // returns the move.
+    private Move play(MoveScore ms) {
+        if (ms.move != PackedMove.NONE) {
+            // Otherwise the game is already over, and toMove gives a QUIT move
+            board.executeMove(ms.move);
+            movesPlayed++;
+            startPondering();
+        }
+        return PackedMove.toMove(ms.move);
+    }
+
+    // Writes the moves to search from position b into moves and returns how
+    // many there are: all valid moves, or only those that stop the
+    // opponent's networks if the opponent threatens one.
+    private int rootMoves(Board b, int[] moves) {
+        int count = b.generateMoves(moves);
+        if (Threats.winningMove(b, b.other(), threatBuffer) != PackedMove.NONE) {
+            count = keepBlocks(b, moves, count);
+        }
+        return count;
+    }
+
+    // Turns pondering on or off.  When on, after chooseMove returns, a
+    // background thread searches the position after the opponent's reply
+    // predicted by the search, until the opponent's move arrives.  If the
+    // prediction was right, the next chooseMove starts with the transposition
+    // table full of results for the position.  A player with a fixed depth
+    // then plays at once if pondering reached that depth; a timed player
+    // still searches, starting at the depth pondering reached, and spends
+    // its budget going deeper.  Off by default.
+    public void setPondering(boolean on) {
+        this.pondering = on;
+        if (!on) {
+            stopPondering();
+        }
+    }
+
+    private void startPondering() {
+        int reply = workers[0].predictedReply();
+        if (!pondering || reply == PackedMove.NONE) {
+            return;
+        }
+        Board next = new Board(board);
+        if (!next.isValidMove(PackedMove.toMove(reply))) {
+            // Not a move in this position, e.g. from a clashing table entry
+            return;
+        }
+        next.executeMove(reply);
+        if (Threats.winningMove(next, color, threatBuffer) != PackedMove.NONE) {
+            // chooseMove will play the win without searching
+            return;
+        }
+        int count = rootMoves(next, rootMoves);
+        SearchWorker w = workers[0];
+        if (table != null) {
+            table.newSearch();
+        }
+        w.start(next, movesPlayed + 1, rootMoves, count);
+        ponderKey = next.key();
+        ponderResult = null;
+        ponderDepth = 0;
+        ponderThread = new Thread(() -> {
+            ponderResult = w.deepen(1, System.nanoTime(), Long.MAX_VALUE);
+            ponderDepth = w.depth();
+        });
+        ponderThread.setDaemon(true);
+        ponderThread.start();
+    }
+
+    // Stops the pondering thread, if there is one, and records whether it
+    // pondered the position now on the board.
+    private void stopPondering() {
+        if (ponderThread == null) {
+            return;
+        }
+        workers[0].stop();
+        try {
+            ponderThread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ponderThread = null;
+        ponderHit = ponderResult != null && board.key() == ponderKey;
+    }
+
+    // Starts a thread for each worker but the first, deepening from depth 1 or
+    // 2 so that the helpers do not all search the same depth at once.  They
+    // stop at the same deadline as the first worker, or when stopped.
+    private Thread[] startHelpers(long start, long budget) {
+        Thread[] helpers = new Thread[workers.length - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            SearchWorker w = workers[i + 1];
+            int firstDepth = 1 + (i + 1) % 2;
+            helpers[i] = new Thread(() -> w.deepen(firstDepth, start, budget));
+            helpers[i].setDaemon(true);
+            helpers[i].start();
+        }
+        return helpers;
+    }
+
+    // Stops the helper threads and waits for them to finish.
+    private void stopHelpers(Thread[] helpers) {
+        for (int i = 0; i < helpers.length; i++) {
+            workers[i + 1].stop();
+        }
+        for (Thread t : helpers) {
+            try {
+                t.join();
             }
-            else if (!self && reply.score < best.score) {
-                best.m = m;
-                best.score = reply.score;
-                beta = reply.score;
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            if (alpha >= beta) {
-                return best;
+        }
+    }
+
+    // The opponent can complete a network next turn.  Moves the first count
+    // moves in legal that stop every such network to the front, and returns
+    // how many there are.  If none do, all count moves are kept.
+    private int keepBlocks(Board b, int[] legal, int count) {
+        int blocks = 0;
+        for (int i = 0; i < count; i++) {
+            int m = legal[i];
+            b.executeMove(m);
+            boolean blocked = Threats.winningMove(b, b.turn(),
+                    threatBuffer) == PackedMove.NONE;
+            b.undoMove(m);
+            if (blocked) {
+                legal[i] = legal[blocks];
+                legal[blocks++] = m;
             }
         }
-        return best;
+        return blocks > 0 ? blocks : count;
     }
 
     // If the Move m is legal, records the move as a move by the opponent
@@ -102,7 +438,9 @@ public class MachinePlayer extends Player {
     public boolean opponentMove(Move m) {
         if (board.isValidMove(m)) {
             board.executeMove(m);
-            Board.stateSeq.add(board.hashCode());
+            movesPlayed++;
+            Board.stateSeq.add(board.key());
+            stopPondering();
             return true;
         }
         return false;
@@ -115,7 +453,10 @@ public class MachinePlayer extends Player {
     // player to solve.
     public boolean forceMove(Move m) {
         if (board.isValidAddMove(m)) {
+            stopPondering();
+            ponderHit = false;
             board.executeMove(m);
+            movesPlayed++;
             return true;
         }
         return false;
@@ -167,7 +508,7 @@ public class MachinePlayer extends Player {
         for (Move v : valid) {
             black.board.executeMove(v);
             System.out.println(v + ": " + black.board.evaluate(black.color) +
-                    " " + " " + Board.stateWeights.get(black.board.hashCode()) + " " + white.board.evaluateWithWeight(black.color));
+                    " " + " " + Board.stateWeights.get(black.board.key()) + " " + white.board.evaluateWithWeight(black.color));
             black.board.undoMove(v);
         }
     }
@@ -1,33 +1,31 @@
 package player;
 
+import board.PackedMove;
+
 /**
  * Identical to a Move object, except it stores a value indicative of how good
- * the resulting board from making "this" Move will be.
+ * the resulting board from making "this" Move will be. The move is packed as
+ * described in board.PackedMove.
  */
 public class MoveScore{
 
     public int score;
-    public Move m;
+    public int move;
 
-    public MoveScore(Move m, int score) {
-        this.m = m;
+    public MoveScore(int move, int score) {
+        this.move = move;
         this.score = score;
     }
 
     public MoveScore(int score) {
-        this.m = null;
-        this.score = score;
-    }
-
-    public MoveScore(Move m) {
-        this(m, 0);
+        this(PackedMove.NONE, score);
     }
 
     @Override
     public String toString() {
-        if (m == null) {
+        if (move == PackedMove.NONE) {
             return "Null move: " + score;
         }
-        return m.toString() + " " + score;
+        return PackedMove.toMove(move).toString() + " " + score;
     }
 }
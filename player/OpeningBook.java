@@ -0,0 +1,233 @@
+package player;
+
+import board.Board;
+import board.PackedMove;
+import board.Tile;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Moves to play in the first plies of a game, read from a file built offline
+ * by main. The file is a header followed by fixed-size records sorted by
+ * position key, one for each move played from the position while building:
+ *
+ *   header   int MAGIC, int number of records
+ *   record   long board key, int packed move, int games, int wins
+ *
+ * where games counts the games that went on to a result after the move was
+ * played, and wins those won by the player who made it. The file is mapped
+ * into memory and searched in place, so looking up a move neither reads nor
+ * allocates more than the few records it touches.
+ */
+class OpeningBook {
+
+    private static final int MAGIC = 0x4E424B31; // "NBK1"
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int RECORD_BYTES = Long.BYTES + 3 * Integer.BYTES;
+    // Moves played in fewer games are not trusted
+    private static final int MIN_GAMES = 2;
+    // Self-play games longer than this are dropped as undecided
+    private static final int MAX_GAME_PLIES = 120;
+
+    private final ByteBuffer records;
+    private final int count;
+
+    private OpeningBook(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an opening book");
+        }
+        count = buffer.getInt(Integer.BYTES);
+        if (buffer.remaining() < HEADER_BYTES + (long) count * RECORD_BYTES) {
+            throw new IOException("Opening book is truncated");
+        }
+        records = buffer;
+    }
+
+    /**
+     * Maps the book in the given file, written by save.
+     */
+    static OpeningBook load(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            return new OpeningBook(buffer);
+        }
+    }
+
+    /**
+     * Returns the move with the best share of wins among those played at
+     * least MIN_GAMES times from the position with the given key, or
+     * PackedMove.NONE if the book has none.
+     */
+    int lookup(long key) {
+        int best = PackedMove.NONE;
+        double bestRate = -1;
+        int bestGames = 0;
+        for (int i = firstRecord(key); i < count && key(i) == key; i++) {
+            int offset = HEADER_BYTES + i * RECORD_BYTES + Long.BYTES;
+            int move = records.getInt(offset);
+            int games = records.getInt(offset + Integer.BYTES);
+            int wins = records.getInt(offset + 2 * Integer.BYTES);
+            // One won and one lost game are assumed, so that a move won once
+            // in two games does not beat one won 30 times in 40
+            double rate = (wins + 1.0) / (games + 2.0);
+            if (games >= MIN_GAMES && (rate > bestRate ||
+                    (rate == bestRate && games > bestGames))) {
+                best = move;
+                bestRate = rate;
+                bestGames = games;
+            }
+        }
+        return best;
+    }
+
+    int size() {
+        return count;
+    }
+
+    private long key(int i) {
+        return records.getLong(HEADER_BYTES + i * RECORD_BYTES);
+    }
+
+    // Returns the index of the first record whose key is at least key.
+    private int firstRecord(long key) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(mid) < key) {
+                lo = mid + 1;
+            }
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Writes a book holding the given statistics: for each position key, the
+     * games and wins of each packed move, in that order.
+     */
+    static void save(String path, TreeMap<Long, TreeMap<Integer, int[]>> stats)
+            throws IOException {
+        int records = 0;
+        for (TreeMap<Integer, int[]> moves : stats.values()) {
+            records += moves.size();
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(records);
+            for (Map.Entry<Long, TreeMap<Integer, int[]>> position :
+                    stats.entrySet()) {
+                for (Map.Entry<Integer, int[]> move :
+                        position.getValue().entrySet()) {
+                    out.writeLong(position.getKey());
+                    out.writeInt(move.getKey());
+                    out.writeInt(move.getValue()[0]);
+                    out.writeInt(move.getValue()[1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds a book from self-play and writes it to a file:
+     *
+     *   java player.OpeningBook file games plies depth [seed]
+     *
+     * Two players searching to the given depth play the given number of
+     * games. In each game's first plies, a third of the moves are picked at
+     * random among the valid ones instead of searched, so the games spread
+     * over many openings; the moves of those plies are recorded with the
+     * game's result. Only the ADD moves can be recorded, so plies is at most
+     * 2 * Board.MAX_TILES.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println(
+                    "Usage: java player.OpeningBook file games plies depth [seed]");
+            return;
+        }
+        String path = args[0];
+        int games = Integer.parseInt(args[1]);
+        int plies = Integer.parseInt(args[2]);
+        int depth = Integer.parseInt(args[3]);
+        if (plies > 2 * Board.MAX_TILES) {
+            // The random moves are forced, and only ADD moves can be
+            System.err.println("At most " + 2 * Board.MAX_TILES +
+                    " plies can be recorded, the ADD moves of both players");
+            return;
+        }
+        Random random = new Random(args.length > 4 ? Long.parseLong(args[4]) : 0);
+        TreeMap<Long, TreeMap<Integer, int[]>> stats = new TreeMap<>();
+        long[] keys = new long[plies];
+        int[] moves = new int[plies];
+        int[] movers = new int[plies];
+        int[] legal = new int[Board.MAX_MOVES];
+        Board.setVerbose(false);
+        for (int g = 0; g < games; g++) {
+            MachinePlayer white = new MachinePlayer(Tile.WHITE, depth);
+            MachinePlayer black = new MachinePlayer(Tile.BLACK, depth);
+            // Only the progress of the games is wanted
+            white.setVerbose(false);
+            black.setVerbose(false);
+            Board board = new Board();
+            int winner = -1;
+            int recorded = 0;
+            for (int ply = 0; ply < MAX_GAME_PLIES; ply++) {
+                MachinePlayer mover = board.turn() == Tile.WHITE ? white : black;
+                MachinePlayer other = mover == white ? black : white;
+                int move;
+                if (ply < plies && random.nextInt(3) == 0) {
+                    move = legal[random.nextInt(board.generateMoves(legal))];
+                    if (!mover.forceMove(PackedMove.toMove(move))) {
+                        throw new IllegalStateException(
+                                "Player rejected " + PackedMove.toMove(move));
+                    }
+                }
+                else move = PackedMove.pack(mover.chooseMove());
+                if (move == PackedMove.NONE) {
+                    break;
+                }
+                other.opponentMove(PackedMove.toMove(move));
+                if (ply < plies) {
+                    keys[ply] = board.key();
+                    moves[ply] = move;
+                    movers[ply] = board.turn();
+                    recorded++;
+                }
+                board.executeMove(move);
+                int score = board.evaluate(Tile.WHITE);
+                if (score >= Board.MAX || score <= Board.MIN) {
+                    winner = score >= Board.MAX ? Tile.WHITE : Tile.BLACK;
+                    break;
+                }
+            }
+            if (winner < 0) {
+                System.out.println("Game " + (g + 1) + ": undecided");
+                continue;
+            }
+            for (int ply = 0; ply < recorded; ply++) {
+                int[] s = stats.computeIfAbsent(keys[ply], k -> new TreeMap<>())
+                        .computeIfAbsent(moves[ply], m -> new int[2]);
+                s[0]++;
+                if (movers[ply] == winner) {
+                    s[1]++;
+                }
+            }
+            System.out.println("Game " + (g + 1) + ": " +
+                    (winner == Tile.WHITE ? "white" : "black") + " won");
+        }
+        save(path, stats);
+        System.out.println("Wrote " + stats.size() + " positions to " + path);
+    }
+}
@@ -0,0 +1,528 @@
+package player;
+
+import board.Board;
+import board.Evaluator;
+import board.PackedMove;
+import board.Threats;
+
+import java.util.Arrays;
+
+/**
+ * One thread's share of a MachinePlayer search: alpha-beta negamax over its
+ * own copy of the board, with its own move lists, killer and history tables
+ * and node counts. Workers of one player share only the transposition table,
+ * which tolerates concurrent use without locking, so several workers can
+ * search the same position at once and profit from each other's results.
+ */
+class SearchWorker {
+
+    // Nodes searched between checks of the clock
+    private static final int CLOCK_INTERVAL = 1024;
+    // Ordering keys: moves with higher keys are searched first.  History
+    // scores stay below KILLER_KEY.
+    private static final int HASH_MOVE_KEY = Integer.MAX_VALUE;
+    private static final int WINNING_KEY = HASH_MOVE_KEY - 1;
+    private static final int BLOCKING_KEY = HASH_MOVE_KEY - 2;
+    private static final int KILLER_KEY = HASH_MOVE_KEY - 4;
+    private static final int HISTORY_LIMIT = 1 << 24;
+    // Fewest plies left below a node, other than the root, to order its
+    // winning and blocking moves first
+    private static final int THREAT_DRAFT = 2;
+    // Bound on scores.  Its negation is also an int, unlike Integer.MIN_VALUE.
+    private static final int INFINITY = Integer.MAX_VALUE;
+    // Half the width of the root window around the last iteration's score
+    private static final int ASPIRATION_WINDOW = 8;
+    // How many moves are searched in full before reducing, the fewest plies
+    // left to reduce at, and after how many moves the reduction grows from
+    // one ply to two
+    private static final int LMR_MOVES = 3;
+    private static final int LMR_DRAFT = 2;
+    private static final int LMR_DEEP_MOVES = 12;
+    // Most a quiet move one ply above the horizon is expected to gain
+    private static final int FUTILITY_MARGIN = 12;
+
+    private final int color;
+    private final int maxDepth; // Deepest search
+    private final TranspositionTable table; // Shared, or null
+    private Evaluator evaluator;
+    private Board board;
+    private int searchDepth;
+    private boolean timed; // Stop at the deadline
+    private long deadline; // System.nanoTime() at which a timed search stops
+    private volatile boolean stopped; // Set by stop() from another thread
+    private boolean aborted; // The current iteration was cut short
+    private boolean pvs; // Use principal variation search and aspiration
+    private boolean lateMoveReductions, futilityPruning;
+    private boolean adaptiveDepth; // Predict whether an iteration will finish
+    private int[][] moveBuffers; // Reusable packed move list for each ply
+    private int[] threatBuffer; // Scratch space for Threats
+    private int rootMoveCount; // Number of moves in moveBuffers[0] to search
+    private int rootHint; // Best root move of the last finished iteration
+    // Best reply to the best root move found so far in this search, and in
+    // the last search that finished.  Only taken from a reply whose score is
+    // exact, since the move of a node that failed low is only the first one
+    // it tried.
+    private int rootReply, predictedReply;
+    private int[][] orderKeys; // Ordering key of each move in moveBuffers
+    // For each ply, the last two moves that caused a cutoff there
+    private int[][] killers;
+    // For each packed move, how much it has caused cutoffs, weighted by the
+    // depth searched below it
+    private int[] history;
+    private int moveNumber; // Moves played in the game before the last root
+    long nodes, cutoffs, firstMoveCutoffs;
+
+    SearchWorker(int color, int maxDepth, TranspositionTable table,
+                 Evaluator evaluator) {
+        this.color = color;
+        this.maxDepth = maxDepth;
+        this.table = table;
+        this.evaluator = evaluator;
+        this.moveBuffers = new int[maxDepth][Board.MAX_MOVES];
+        this.orderKeys = new int[maxDepth][Board.MAX_MOVES];
+        this.killers = new int[maxDepth][2];
+        this.history = new int[1 << 14];
+        this.threatBuffer = new int[Board.MAX_MOVES];
+        this.pvs = true;
+    }
+
+    void setPrincipalVariationSearch(boolean on) {
+        this.pvs = on;
+    }
+
+    void setLateMoveReductions(boolean on) {
+        this.lateMoveReductions = on;
+    }
+
+    void setFutilityPruning(boolean on) {
+        this.futilityPruning = on;
+    }
+
+    void setAdaptiveDepth(boolean on) {
+        this.adaptiveDepth = on;
+    }
+
+    void setEvaluator(Evaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    // Prepares a search of b's position, reached after moveNumber moves of the
+    // game, trying only the first count moves of rootMoves at the root.  The
+    // worker searches its own copy of b, and starts with zero counts.  The
+    // killer and history tables of the last search are kept as hints: the
+    // killers move up by the number of moves played since its root, so each
+    // stays with the same positions, and history scores are halved, so
+    // cutoffs found by this search soon outweigh the old ones.
+    void start(Board b, int moveNumber, int[] rootMoves, int count) {
+        board = new Board(b);
+        System.arraycopy(rootMoves, 0, moveBuffers[0], 0, count);
+        rootMoveCount = count;
+        rootHint = PackedMove.NONE;
+        predictedReply = PackedMove.NONE;
+        shiftKillers(moveNumber - this.moveNumber);
+        this.moveNumber = moveNumber;
+        for (int i = 0; i < history.length; i++) {
+            history[i] /= 2;
+        }
+        nodes = 0;
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+        stopped = false;
+        timed = false;
+    }
+
+    // Moves the killers of each ply up by plies, dropping those above the
+    // root.  Any other change of root clears them.
+    private void shiftKillers(int plies) {
+        if (plies < 0 || plies >= killers.length) {
+            plies = killers.length;
+        }
+        for (int d = 0; d < killers.length; d++) {
+            if (d + plies < killers.length) {
+                System.arraycopy(killers[d + plies], 0, killers[d], 0, 2);
+            }
+            else Arrays.fill(killers[d], PackedMove.NONE);
+        }
+    }
+
+    // Makes the search running in another thread return as soon as it can.
+    void stop() {
+        stopped = true;
+    }
+
+    // Returns the opponent's best reply to the move chosen by the last search
+    // that finished, or PackedMove.NONE if that search did not look at the
+    // replies.
+    int predictedReply() {
+        return predictedReply;
+    }
+
+    // Returns the depth of the last search that finished.
+    int depth() {
+        return searchDepth;
+    }
+
+    // Searches to exactly the given depth.  Returns null if stopped first.
+    MoveScore search(int depth) {
+        return search(depth, -INFINITY, INFINITY);
+    }
+
+    // Searches to exactly the given depth with the window alpha..beta at the
+    // root.  Returns null if stopped first.
+    private MoveScore search(int depth, int alpha, int beta) {
+        searchDepth = depth;
+        aborted = false;
+        rootReply = PackedMove.NONE;
+        MoveScore ms = negamax(0, depth, alpha, beta);
+        if (aborted) {
+            return null;
+        }
+        predictedReply = rootReply;
+        return ms;
+    }
+
+    // Searches to depth firstDepth, firstDepth + 1... until budget ns have
+    // passed since start or the result of the game is found, and returns the
+    // result of the deepest search that finished.  An iteration is started
+    // if the ones before it took less than half the budget, since it will
+    // likely take longer than all of them, or, with adaptive depth, if it is
+    // predicted to finish within the budget.  Only an iteration to depth 1
+    // always finishes unless the worker is stopped, so null is returned if
+    // the worker was stopped first, or if firstDepth is over 1 and the
+    // deadline passed before its iteration finished.  Leaves depth() at the
+    // depth of the returned result.
+    MoveScore deepen(int firstDepth, long start, long budget) {
+        timed = true;
+        deadline = start + budget;
+        MoveScore best = null;
+        // Nodes searched by the iterations to each depth
+        long[] iterationNodes = new long[maxDepth + 1];
+        int depth;
+        for (depth = firstDepth; depth <= maxDepth; depth++) {
+            long before = nodes;
+            MoveScore ms;
+            if (pvs && best != null && !isDecided(best.score)) {
+                // Expect a score close to the last one, and only search
+                // again with the full window if it is not
+                int alpha = best.score - ASPIRATION_WINDOW;
+                int beta = best.score + ASPIRATION_WINDOW;
+                ms = search(depth, alpha, beta);
+                if (ms != null && (ms.score <= alpha || ms.score >= beta)) {
+                    ms = search(depth);
+                }
+            }
+            else ms = search(depth);
+            if (ms == null) {
+                break;
+            }
+            best = ms;
+            rootHint = ms.move;
+            long elapsed = System.nanoTime() - start;
+            iterationNodes[depth] = nodes - before;
+            boolean next = elapsed <= budget / 2 || (adaptiveDepth &&
+                    nextIterationFits(iterationNodes, depth, elapsed, budget));
+            if (isDecided(ms.score) || !next) {
+                depth++;
+                break;
+            }
+        }
+        searchDepth = depth - 1;
+        return best;
+    }
+
+    // Predicts whether the iteration after the one to depth will finish
+    // within budget ns of the start of the search, elapsed ns of which have
+    // passed, given the nodes searched by each iteration so far.  With
+    // pruning at the horizon, the tree grows much more from some depths to
+    // the next than from others, alternating between odd and even depths, so
+    // the growth is taken from the last iteration that deepened from the same
+    // parity.  Before there is one, the square root of the number of root
+    // moves, the growth of a well-ordered alpha-beta search, is used instead.
+    // Nodes are turned into time at the rate measured in this search.
+    private boolean nextIterationFits(long[] iterationNodes, int depth,
+                                      long elapsed, long budget) {
+        double branching;
+        if (depth >= 3 && iterationNodes[depth - 2] >= CLOCK_INTERVAL) {
+            branching = (double) iterationNodes[depth - 1] /
+                    iterationNodes[depth - 2];
+        }
+        else branching = Math.sqrt(rootMoveCount);
+        branching = Math.max(1, Math.min(branching, rootMoveCount));
+        double nodesPerNano = (double) nodes / Math.max(1, elapsed);
+        double predicted = iterationNodes[depth] * branching / nodesPerNano;
+        return elapsed + predicted <= budget;
+    }
+
+    // Returns true if the search must stop: the worker was stopped, or the
+    // deadline of a timed search has passed.  Depth 1 always finishes unless
+    // stopped, so a timed search has a move to return.
+    private boolean mustStop() {
+        return stopped || (timed && searchDepth > 1 &&
+                System.nanoTime() - deadline > 0);
+    }
+
+    // Returns true if score comes from a won or lost board rather than from
+    // the evaluator.
+    static boolean isDecided(int score) {
+        return Math.abs(Math.abs(score) - Board.MAX) <= MachinePlayer.MAX_SEARCH_DEPTH + 1;
+    }
+
+    // Adjusts the score of a won or lost board found at the given depth, so
+    // that faster wins and slower losses score higher.
+    private static int terminalScore(int score, int depth) {
+        if (score > 0) {
+            return score - depth;
+        }
+        return score + depth;
+    }
+
+    // Scores of won or lost boards count the plies from the root, which
+    // differ between searches.  The table stores them counted from the
+    // position instead; these convert between the two.
+    private static int toTable(int score, int depth) {
+        if (isDecided(score)) {
+            return score > 0 ? score + depth : score - depth;
+        }
+        return score;
+    }
+
+    private static int fromTable(int score, int depth) {
+        if (isDecided(score)) {
+            return score > 0 ? score - depth : score + depth;
+        }
+        return score;
+    }
+
+    // Searches the board, depth plies below the root, draft more plies deep
+    // and returns the best move and its score for the player to move,
+    // between alpha and beta: a score of alpha means the real score is at
+    // most alpha, and one of beta that it is at least beta.  Scores of the
+    // opponent's replies are the negation of their scores for the opponent.
+    // In PVS mode, every move after the first is only tested against alpha
+    // with a null window, and searched again with the full window if it
+    // turns out better.  Late move reductions and futility pruning, when on,
+    // only apply once the player to move has placed all their tiles.
+    private MoveScore negamax(int depth, int draft, int alpha, int beta) {
+        long key = board.key();
+        int hashMove = depth == 0 ? rootHint : PackedMove.NONE;
+        if (table != null && draft > 0) {
+            long entry = table.probe(key);
+            if (entry != TranspositionTable.MISS &&
+                    (depth > 0 || hashMove == PackedMove.NONE)) {
+                // At the root, before an iteration has finished, the best
+                // move an earlier search or pondering found here
+                hashMove = TranspositionTable.move(entry);
+            }
+            if (entry != TranspositionTable.MISS && depth > 0 &&
+                    TranspositionTable.depth(entry) >= draft) {
+                int stored = fromTable(TranspositionTable.score(entry), depth);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT ||
+                        (bound == TranspositionTable.LOWER && stored >= beta) ||
+                        (bound == TranspositionTable.UPPER && stored <= alpha)) {
+                    return new MoveScore(TranspositionTable.move(entry), stored);
+                }
+            }
+        }
+        int alphaOrig = alpha;
+        int score = evaluator.evaluate(board, color);
+        if (board.turn() != color) {
+            score = -score;
+        }
+        MoveScore best = new MoveScore(score);
+        boolean over = score >= Board.MAX || score <= Board.MIN;
+        if (over) {
+            best.score = terminalScore(score, depth);
+            return best;
+        }
+        if (draft == 0) {
+            if (Threats.winningMove(board, board.turn(), threatBuffer)
+                    != PackedMove.NONE) {
+                // The player to move wins next turn
+                best.score = terminalScore(Board.MAX, depth + 1);
+            }
+            return best;
+        }
+        best.score = alpha;
+        int[] legal = moveBuffers[depth];
+        int count = depth == 0 ? rootMoveCount : board.generateMoves(legal);
+        int[] keys = orderKeys[depth];
+        scoreMoves(depth, draft, legal, keys, count, hashMove);
+        boolean stepping = board.getTileCount(board.turn()) == Board.MAX_TILES;
+        // Quiet moves near the horizon cannot raise a score this far below
+        // alpha, so they are skipped
+        boolean futile = futilityPruning && stepping && draft == 1 &&
+                score + FUTILITY_MARGIN <= alpha;
+        if (futile) {
+            // Move ordering does not look for wins this near the horizon, so
+            // a winning move could pass for quiet and be skipped
+            int win = Threats.winningMove(board, board.turn(), threatBuffer);
+            if (win != PackedMove.NONE) {
+                best.move = win;
+                best.score = terminalScore(Board.MAX, depth + 1);
+                return best;
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            int m = nextMove(legal, keys, i, count);
+            if (i == 0) {
+                best.move = m;
+            }
+            boolean quiet = keys[i] < KILLER_KEY - 1;
+            if (futile && i > 0 && quiet) {
+                continue;
+            }
+            board.executeMove(m);
+            nodes++;
+            if (nodes % CLOCK_INTERVAL == 0 && mustStop()) {
+                aborted = true;
+            }
+            int value = alpha + 1;
+            if (lateMoveReductions && stepping && quiet && draft >= LMR_DRAFT &&
+                    i >= LMR_MOVES) {
+                // A late quiet move is probably no better than alpha; check
+                // that with a shallower null window search first, and only
+                // search it in full if it is not
+                int reduction = i >= LMR_DEEP_MOVES && draft > 2 ? 2 : 1;
+                value = -negamax(depth + 1, draft - 1 - reduction,
+                        -alpha - 1, -alpha).score;
+            }
+            MoveScore reply = null;
+            if (value > alpha && !aborted) {
+                if (i == 0 || !pvs || draft == 1) {
+                    // A null window cannot prune the replies to a move made
+                    // one ply above the horizon, so it could only add a
+                    // re-search
+                    reply = negamax(depth + 1, draft - 1, -beta, -alpha);
+                }
+                else {
+                    reply = negamax(depth + 1, draft - 1, -alpha - 1, -alpha);
+                    if (-reply.score > alpha && -reply.score < beta &&
+                            !aborted) {
+                        reply = negamax(depth + 1, draft - 1, -beta, -alpha);
+                    }
+                }
+                value = -reply.score;
+            }
+            board.undoMove(m);
+            if (aborted) {
+                return best;
+            }
+            if (value > alpha) {
+                best.move = m;
+                best.score = value;
+                alpha = value;
+                if (depth == 0) {
+                    // Inside the window, the reply's score is exact
+                    rootReply = value < beta ? reply.move : PackedMove.NONE;
+                }
+            }
+            if (alpha >= beta) {
+                recordCutoff(depth, m, draft, i);
+                break;
+            }
+        }
+        if (table != null) {
+            // Bounds are relative to the window the node was searched with
+            int bound = TranspositionTable.EXACT;
+            if (best.score <= alphaOrig) {
+                bound = TranspositionTable.UPPER;
+            }
+            else if (best.score >= beta) {
+                bound = TranspositionTable.LOWER;
+            }
+            table.store(key, best.move, toTable(best.score, depth), draft, bound);
+        }
+        return best;
+    }
+
+    // Gives each of the count moves in legal an ordering key: the hash move
+    // first, then moves that complete a network, then moves onto a square
+    // where the opponent could complete one, then the killer moves of this
+    // ply, then the rest by history score.  Finding the moves that complete
+    // a network means making them, which only pays off at the root or with
+    // at least THREAT_DRAFT plies left below the node; nearer the horizon,
+    // winning and blocking moves are not looked for.  The threat at the
+    // horizon itself is still found by negamax.
+    private void scoreMoves(int depth, int draft, int[] legal, int[] keys,
+                            int count, int hashMove) {
+        boolean findThreats = depth == 0 || draft >= THREAT_DRAFT;
+        long blocks = 0;
+        int threats = findThreats ?
+                Threats.winningMoves(board, board.other(), threatBuffer) : 0;
+        for (int i = 0; i < threats; i++) {
+            blocks |= 1L << PackedMove.to(threatBuffer[i]);
+        }
+        int wins = findThreats ?
+                Threats.winningMoves(board, board.turn(), threatBuffer) : 0;
+        int[] killer = killers[depth];
+        for (int i = 0; i < count; i++) {
+            int m = legal[i];
+            if (m == hashMove) {
+                keys[i] = HASH_MOVE_KEY;
+            }
+            else if (contains(threatBuffer, wins, m)) {
+                keys[i] = WINNING_KEY;
+            }
+            else if ((blocks & (1L << PackedMove.to(m))) != 0) {
+                keys[i] = BLOCKING_KEY;
+            }
+            else if (m == killer[0]) {
+                keys[i] = KILLER_KEY;
+            }
+            else if (m == killer[1]) {
+                keys[i] = KILLER_KEY - 1;
+            }
+            else keys[i] = history[m];
+        }
+    }
+
+    private static boolean contains(int[] moves, int count, int m) {
+        for (int i = 0; i < count; i++) {
+            if (moves[i] == m) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Swaps the move with the highest key among legal[i..count-1] into slot i
+    // and returns it.  Selecting one move at a time saves sorting the moves
+    // after a cutoff.
+    private static int nextMove(int[] legal, int[] keys, int i, int count) {
+        int top = i;
+        for (int j = i + 1; j < count; j++) {
+            if (keys[j] > keys[top]) {
+                top = j;
+            }
+        }
+        int m = legal[top];
+        int k = keys[top];
+        legal[top] = legal[i];
+        keys[top] = keys[i];
+        legal[i] = m;
+        keys[i] = k;
+        return m;
+    }
+
+    // Move m, the index-th searched at the given depth with draft plies left,
+    // caused a cutoff.
+    private void recordCutoff(int depth, int m, int draft, int index) {
+        cutoffs++;
+        if (index == 0) {
+            firstMoveCutoffs++;
+        }
+        int[] killer = killers[depth];
+        if (killer[0] != m) {
+            killer[1] = killer[0];
+            killer[0] = m;
+        }
+        history[m] += draft * draft;
+        if (history[m] > HISTORY_LIMIT) {
+            for (int i = 0; i < history.length; i++) {
+                history[i] /= 2;
+            }
+        }
+    }
+}
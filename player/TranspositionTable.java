@@ -0,0 +1,143 @@
+package player;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size table of search results, indexed by board key. Each entry
+ * packs a best move, a score, the depth searched below the position and the
+ * kind of bound the score is into one long:
+ *
+ *   bits  0-13  best move, packed as in board.PackedMove
+ *   bits 14-15  bound: EXACT, LOWER or UPPER (0 marks an empty slot)
+ *   bits 16-23  depth
+ *   bits 24-31  generation: the search that stored the entry
+ *   bits 32-63  score
+ *
+ * Entries are kept in buckets of two slots. The first slot holds the deepest
+ * result seen for the bucket and is only replaced by one at least as deep,
+ * or by any result once it is left over from an earlier search; the second
+ * slot always takes the newest result. Entries of earlier searches are still
+ * found by probe, so a search can use what the last ones learned about the
+ * positions it reaches again, but they give way to the current search's
+ * results instead of filling the table forever. Like board.LongCache, each
+ * slot stores key ^ entry next to the entry, so a slot torn by concurrent
+ * writers reads as a miss.
+ */
+class TranspositionTable {
+
+    public static final long MISS = 0; // Returned by probe on a miss
+
+    public static final int EXACT = 1; // The score is the exact value
+    public static final int LOWER = 2; // The value is at least the score
+    public static final int UPPER = 3; // The value is at most the score
+
+    private static final int SLOTS = 2;
+    private static final int BYTES_PER_SLOT = 2 * Long.BYTES;
+
+    private final long[] checks; // key ^ entry
+    private final long[] entries;
+    private final int bucketMask;
+    private int generation; // Of the current search, 0-255
+    private long probes, hits;
+
+    /**
+     * Creates an empty table using at most the given number of megabytes,
+     * and at least one bucket.
+     */
+    TranspositionTable(int megabytes) {
+        long slots = Math.min(1L << 30,
+                (megabytes * (1L << 20)) / BYTES_PER_SLOT);
+        int size = Math.max(SLOTS, Integer.highestOneBit((int) slots));
+        checks = new long[size];
+        entries = new long[size];
+        bucketMask = size / SLOTS - 1;
+    }
+
+    /**
+     * Returns the entry stored for key, or MISS if there is none.
+     */
+    long probe(long key) {
+        probes++;
+        int slot = firstSlot(key);
+        for (int i = slot; i < slot + SLOTS; i++) {
+            long entry = entries[i];
+            if (entry != MISS && (checks[i] ^ entry) == key) {
+                hits++;
+                return entry;
+            }
+        }
+        return MISS;
+    }
+
+    /**
+     * Stores a search result for key.
+     */
+    void store(long key, int move, int score, int depth, int bound) {
+        long entry = ((long) score << 32) | ((long) generation << 24) |
+                ((long) depth << 16) | ((long) bound << 14) | move;
+        int slot = firstSlot(key);
+        long deepest = entries[slot];
+        if (deepest == MISS || (checks[slot] ^ deepest) == key ||
+                depth >= depth(deepest) || generation(deepest) != generation) {
+            entries[slot] = entry;
+            checks[slot] = key ^ entry;
+        }
+        else {
+            entries[slot + 1] = entry;
+            checks[slot + 1] = key ^ entry;
+        }
+    }
+
+    static int move(long entry) {
+        return (int) entry & 0x3FFF;
+    }
+
+    static int bound(long entry) {
+        return (int) (entry >>> 14) & 3;
+    }
+
+    static int depth(long entry) {
+        return (int) (entry >>> 16) & 0xFF;
+    }
+
+    static int generation(long entry) {
+        return (int) (entry >>> 24) & 0xFF;
+    }
+
+    static int score(long entry) {
+        return (int) (entry >> 32);
+    }
+
+    /**
+     * Starts a new search: entries stored from now on belong to it, and the
+     * deepest slots holding entries of earlier searches may be replaced by
+     * shallower ones.
+     */
+    void newSearch() {
+        generation = (generation + 1) & 0xFF;
+    }
+
+    /**
+     * Removes every entry, for instance after the evaluator changed.
+     */
+    void clear() {
+        Arrays.fill(entries, MISS);
+        probes = 0;
+        hits = 0;
+    }
+
+    public double hitRate() {
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+
+    private int firstSlot(long key) {
+        return ((int) (key ^ (key >>> 32)) & bucketMask) * SLOTS;
+    }
+
+    @Override
+    public String toString() {
+        return entries.length + " entries (" +
+                (long) entries.length * BYTES_PER_SLOT / 1024 + " KB), " +
+                String.format("%.1f%% hits", 100 * hitRate());
+    }
+}